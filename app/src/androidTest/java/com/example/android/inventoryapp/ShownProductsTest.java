@@ -0,0 +1,113 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which changes of a product are patched into its row of the catalog, and which ones
+ * reload the rows because they move the product or take it in or out of the list.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ShownProductsTest {
+
+    private static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_CATEGORY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_ID,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION
+    };
+
+    private static final ShownProducts LOW_STOCK = ShownProducts.forPages(ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.SELECTION_LOW_STOCK, new String[]{String.valueOf(ProductEntry.LOW_STOCK_QUANTITY)});
+
+    @Test
+    public void saleUnderLowStockFilterReloads() {
+        ProductRows rows = createRows(new Object[][]{
+                {1L, "Scarf", ProductEntry.CATEGORY_UNISEX, "Supplier", 1, 10},
+                {2L, "Glove", ProductEntry.CATEGORY_UNISEX, "Supplier", 3, 10}
+        });
+
+        // The sold product moves up in the order of the quantities
+        assertFalse(LOW_STOCK.canPatch(rows, 2, createValues(2, "Glove", ProductEntry.CATEGORY_UNISEX, "Supplier", 0, 10)));
+        // Restocked, it leaves the low stock products
+        ContentValues restocked = createValues(2, "Glove", ProductEntry.CATEGORY_UNISEX, "Supplier", 20, 10);
+        assertFalse(LOW_STOCK.matches(restocked));
+        assertFalse(LOW_STOCK.canPatch(rows, 2, restocked));
+        // The price is neither sorted nor filtered by here
+        assertTrue(LOW_STOCK.canPatch(rows, 2, createValues(2, "Glove", ProductEntry.CATEGORY_UNISEX, "Supplier", 3, 12)));
+    }
+
+    @Test
+    public void changesOfTheSortAndFilterColumnsReload() {
+        ProductRows rows = createRows(new Object[][]{
+                {1L, "Scarf", ProductEntry.CATEGORY_FEMALE, "Supplier", 4, 10},
+                {2L, "Glove", ProductEntry.CATEGORY_FEMALE, "Supplier", 7, 20}
+        });
+
+        ShownProducts byPrice = ShownProducts.forPages(ProductEntry.COLUMN_PRODUCT_PRICE, null, null);
+        assertFalse(byPrice.canPatch(rows, 1, createValues(1, "Scarf", ProductEntry.CATEGORY_FEMALE, "Supplier", 4, 30)));
+        assertTrue(byPrice.canPatch(rows, 1, createValues(1, "Scarf", ProductEntry.CATEGORY_FEMALE, "Supplier", 3, 10)));
+
+        ShownProducts female = ShownProducts.forPages(ProductEntry._ID, ProductEntry.SELECTION_CATEGORY,
+                new String[]{String.valueOf(ProductEntry.CATEGORY_FEMALE)});
+        assertFalse(female.canPatch(rows, 1, createValues(1, "Scarf", ProductEntry.CATEGORY_MALE, "Supplier", 4, 10)));
+        assertTrue(female.canPatch(rows, 1, createValues(1, "Scarves", ProductEntry.CATEGORY_FEMALE, "Supplier", 4, 10)));
+
+        ShownProducts priceRange = ShownProducts.forPages(ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.SELECTION_PRICE_RANGE, new String[]{"5", "25"});
+        assertFalse(priceRange.canPatch(rows, 2, createValues(2, "Glove", ProductEntry.CATEGORY_FEMALE, "Supplier", 7, 30)));
+
+        // A product which was left out comes in
+        assertFalse(female.canPatch(rows, 3, createValues(3, "Hat", ProductEntry.CATEGORY_FEMALE, "Supplier", 1, 5)));
+        assertTrue(female.canPatch(rows, 3, createValues(3, "Hat", ProductEntry.CATEGORY_MALE, "Supplier", 1, 5)));
+    }
+
+    @Test
+    public void renameUnderSearchReloads() {
+        ProductRows rows = createRows(new Object[][]{
+                {1L, "Scarf", ProductEntry.CATEGORY_UNISEX, "Wool Inc", 4, 10}
+        });
+        ShownProducts search = ShownProducts.forSearch(ProductEntry.getSearchTerms("sca"));
+
+        assertFalse(search.canPatch(rows, 1, createValues(1, "Glove", ProductEntry.CATEGORY_UNISEX, "Wool Inc", 4, 10)));
+        assertFalse(search.canPatch(rows, 1, createValues(1, "Scarf blue", ProductEntry.CATEGORY_UNISEX, "Wool Inc", 4, 10)));
+        assertTrue(search.canPatch(rows, 1, createValues(1, "Scarf", ProductEntry.CATEGORY_UNISEX, "Wool Inc", 3, 10)));
+    }
+
+    private static ProductRows createRows(Object[][] products) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (Object[] product : products) {
+            cursor.addRow(new Object[]{product[0], product[1], product[2], product[3], product[4], product[5], null, 0});
+        }
+        try {
+            return ProductRows.read(cursor, 1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues createValues(long id, String name, int category, String supplier,
+                                              int quantity, int price) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry._ID, id);
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductEntry.COLUMN_PRODUCT_CATEGORY, category);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplier);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, price);
+        return values;
+    }
+}
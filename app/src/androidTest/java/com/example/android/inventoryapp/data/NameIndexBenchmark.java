@@ -0,0 +1,62 @@
+package com.example.android.inventoryapp.data;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measures how long suggesting names takes with a {@link NameIndex} of 100k products, the way the
+ * provider answers every typed character: the completions, then the corrections filling up the
+ * list. The average time per text is written to logcat with the tag of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NameIndexBenchmark {
+
+    private static final String LOG_TAG = NameIndexBenchmark.class.getSimpleName();
+    private static final int PRODUCT_COUNT = 100000;
+    private static final String[] WORDS = {
+            "shirt", "t-shirt", "jacket", "jeans", "sock", "shoe", "hat", "scarf", "glove", "belt"
+    };
+    private static final String[] TEXTS = {
+            "s", "sh", "t-sh", "jacket b", "jakcet", "tshirtab", "glvoe", "scraf"
+    };
+
+    @Test
+    public void suggestFor100kNames() {
+        NameIndex index = new NameIndex();
+        Random random = new Random(1);
+        for (int id = 0; id < PRODUCT_COUNT; id++) {
+            index.put(id, WORDS[random.nextInt(WORDS.length)] + " " + (char) ('a' + random.nextInt(26))
+                    + (char) ('a' + random.nextInt(26)) + random.nextInt(1000));
+        }
+
+        // Warm up first
+        for (int i = 0; i < 1000; i++) {
+            suggest(index, TEXTS[i % TEXTS.length]);
+        }
+        int count = 2000;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            String[] names = suggest(index, TEXTS[i % TEXTS.length]);
+            assertEquals(Arrays.toString(names), NameIndex.MAX_SUGGESTIONS, names.length);
+        }
+        long averageNanos = (System.nanoTime() - start) / count;
+
+        Log.i(LOG_TAG, "suggestions for " + PRODUCT_COUNT + " products: " + averageNanos + " ns per text");
+    }
+
+    private static String[] suggest(NameIndex index, String text) {
+        String[] suggestions = index.suggest(text, NameIndex.MAX_SUGGESTIONS);
+        String[] corrections = index.correct(text, NameIndex.MAX_SUGGESTIONS - suggestions.length);
+        String[] names = Arrays.copyOf(suggestions, suggestions.length + corrections.length);
+        System.arraycopy(corrections, 0, names, suggestions.length, corrections.length);
+        return names;
+    }
+}
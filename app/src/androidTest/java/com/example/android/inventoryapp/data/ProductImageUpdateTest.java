@@ -0,0 +1,173 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.widget.ImageView;
+
+import com.example.android.inventoryapp.ImageLoader;
+import com.example.android.inventoryapp.data.ProductContract.ImageEntry;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that replacing the bytes of an image gives its products another image id, so the image
+ * loader keyed by the id decodes the new picture instead of showing the cached old one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductImageUpdateTest {
+
+    private static final int SIZE = 16;
+
+    private Context mContext;
+    private ProductProvider mProvider;
+    /**
+     * Keeps the keys of this run apart from the images cached on disk by earlier runs, whose
+     * databases had the same ids.
+     */
+    private String mKeyPrefix;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase("inventory.db");
+        mProvider = new ProductProvider();
+        mProvider.attachInfo(mContext, null);
+        mKeyPrefix = "test" + System.currentTimeMillis() + ":";
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mProvider.shutdown();
+        mContext.deleteDatabase("inventory.db");
+    }
+
+    @Test
+    public void updatedImageIsNotLoadedFromTheCache() throws Exception {
+        Uri productUri = mProvider.insert(ProductEntry.CONTENT_URI, createProduct(encode(Color.RED)));
+        long oldImageId = queryImageId(productUri);
+
+        ImageLoader imageLoader = ImageLoader.getInstance(mContext);
+        assertEquals(Color.RED, load(imageLoader, oldImageId));
+        // Shown again from memory
+        int memoryHits = imageLoader.getMemoryHitCount();
+        assertEquals(Color.RED, load(imageLoader, oldImageId));
+        assertEquals(memoryHits + 1, imageLoader.getMemoryHitCount());
+
+        ContentValues values = new ContentValues();
+        values.put(ImageEntry.COLUMN_IMAGE_DATA, encode(Color.BLUE));
+        Uri oldImageUri = ContentUris.withAppendedId(ImageEntry.CONTENT_URI, oldImageId);
+        assertEquals(1, mProvider.update(oldImageUri, values, null, null));
+
+        long newImageId = queryImageId(productUri);
+        assertNotEquals(oldImageId, newImageId);
+        Cursor cursor = mProvider.query(oldImageUri, new String[]{ImageEntry._ID}, null, null, null);
+        try {
+            assertEquals("The replaced image is deleted", 0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+
+        int misses = imageLoader.getMissCount();
+        assertEquals(Color.BLUE, load(imageLoader, newImageId));
+        assertEquals("Decoded from the provider", misses + 1, imageLoader.getMissCount());
+    }
+
+    /**
+     * Load the image through the image loader like the editor does, and return the color of its
+     * center pixel.
+     */
+    private int load(final ImageLoader imageLoader, long imageId) throws InterruptedException {
+        final String key = ImageLoader.getKey(mKeyPrefix + imageId, SIZE, SIZE);
+        final Uri imageUri = ContentUris.withAppendedId(ImageEntry.CONTENT_URI, imageId);
+        final ImageLoader.Source source = new ImageLoader.Source() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) throws IOException {
+                ParcelFileDescriptor descriptor = mProvider.openFile(imageUri, "r");
+                try {
+                    return BitmapFactory.decodeFileDescriptor(descriptor.getFileDescriptor(), null, options);
+                } finally {
+                    descriptor.close();
+                }
+            }
+
+            @Override
+            public int getRotation() {
+                return 0;
+            }
+        };
+        final CountDownLatch loaded = new CountDownLatch(1);
+        final Bitmap[] shown = new Bitmap[1];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                ImageView view = new ImageView(mContext);
+                imageLoader.load(key, source, view, SIZE, SIZE, 0, new ImageLoader.Listener() {
+                    @Override
+                    public void onImageLoaded(ImageView view, Bitmap bitmap) {
+                        shown[0] = bitmap;
+                        loaded.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue("Image " + imageId + " was not loaded", loaded.await(10, TimeUnit.SECONDS));
+        return shown[0].getPixel(shown[0].getWidth() / 2, shown[0].getHeight() / 2);
+    }
+
+    private long queryImageId(Uri productUri) {
+        Cursor cursor = mProvider.query(productUri, new String[]{ProductEntry.COLUMN_PRODUCT_IMAGE_ID},
+                null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues createProduct(byte[] image) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Scarf");
+        values.put(ProductEntry.COLUMN_PRODUCT_CATEGORY, ProductEntry.CATEGORY_UNISEX);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Supplier");
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL, "supplier@example.com");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, 10);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, 1);
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, image);
+        return values;
+    }
+
+    /**
+     * Return a lossless image filled with the color.
+     */
+    private static byte[] encode(int color) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(color);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, output);
+        bitmap.recycle();
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares inserting products one by one with {@link ProductProvider#bulkInsert}, each into a
+ * new empty database. The rows per second of both approaches are written to logcat with the tag
+ * of this class.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductProviderBenchmark {
+
+    private static final String LOG_TAG = ProductProviderBenchmark.class.getSimpleName();
+    private static final int ROW_COUNT = 2000;
+
+    private Context mContext;
+    private ProductProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext());
+        resetDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mProvider.shutdown();
+        mContext.deleteDatabase("inventory.db");
+    }
+
+    @Test
+    public void singleInsertsVersusBulkInsert() throws Exception {
+        ContentValues[] rows = createRows(ROW_COUNT);
+
+        long start = SystemClock.elapsedRealtime();
+        for (ContentValues row : rows) {
+            mProvider.insert(ProductEntry.CONTENT_URI, row);
+        }
+        long singleMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+        assertEquals(ROW_COUNT, countProducts());
+
+        // Bulk inserting into the rows inserted above would cost more than into an empty table
+        resetDatabase();
+        start = SystemClock.elapsedRealtime();
+        int inserted = mProvider.bulkInsert(ProductEntry.CONTENT_URI, rows);
+        long bulkMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+
+        assertEquals(ROW_COUNT, inserted);
+        assertEquals(ROW_COUNT, countProducts());
+
+        Log.i(LOG_TAG, "single inserts: " + (ROW_COUNT * 1000L / singleMillis) + " rows/s, "
+                + "bulkInsert: " + (ROW_COUNT * 1000L / bulkMillis) + " rows/s");
+    }
+
+    /**
+     * Start over with a new provider on a new empty database.
+     */
+    private void resetDatabase() {
+        if (mProvider != null) {
+            mProvider.shutdown();
+        }
+        mContext.deleteDatabase("inventory.db");
+        mProvider = new ProductProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    private int countProducts() {
+        Cursor cursor = mProvider.query(ProductEntry.CONTENT_URI,
+                new String[]{ProductEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues[] createRows(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        byte[] image = new byte[2048];
+        for (int i = 0; i < count; i++) {
+            ContentValues values = new ContentValues();
+            values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+            values.put(ProductEntry.COLUMN_PRODUCT_CATEGORY, ProductEntry.CATEGORY_UNISEX);
+            values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Supplier " + (i % 50));
+            values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL, "supplier" + (i % 50) + "@example.com");
+            values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i % 100);
+            values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i % 20);
+            values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, image);
+            rows[i] = values;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.android.inventoryapp.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks through EXPLAIN QUERY PLAN that every sort order and filter of the catalog reads its
+ * pages from an index, instead of scanning the products table or sorting it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductQueryPlanTest {
+
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_CATEGORY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_ID,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION
+    };
+    private static final String[] SORT_COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_CATEGORY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY
+    };
+    private static final int PAGE_SIZE = 50;
+
+    private Context mContext;
+    private ProductProvider mProvider;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = new TestDatabaseContext(InstrumentationRegistry.getTargetContext());
+        mContext.deleteDatabase("inventory.db");
+        mProvider = new ProductProvider();
+        mProvider.attachInfo(mContext, null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mProvider.shutdown();
+        mContext.deleteDatabase("inventory.db");
+    }
+
+    @Test
+    public void sortOrdersUseIndexes() {
+        for (String sortColumn : SORT_COLUMNS) {
+            if (ProductEntry._ID.equals(sortColumn)) {
+                // The table itself is ordered by id
+                continue;
+            }
+            assertPagesUseIndex(sortColumn, null);
+        }
+    }
+
+    /**
+     * The default order reads the table itself in rowid order: a following page starts with a
+     * search of the primary key, and no page sorts the table, so LIMIT stops the scan after a page.
+     */
+    @Test
+    public void idSortIsRowidScanBoundedByLimit() {
+        ContentValues[] rows = new ContentValues[2 * PAGE_SIZE + 1];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = createProduct(i);
+        }
+        mProvider.bulkInsert(ProductEntry.CONTENT_URI, rows);
+
+        Uri firstPageUri = ProductEntry.getPageUri(ProductEntry._ID, PAGE_SIZE, null, 0);
+        Uri nextPageUri = ProductEntry.getPageUri(ProductEntry._ID, PAGE_SIZE, "1", 1);
+        List<String> firstPlan = mProvider.explainQueryPlan(firstPageUri, PROJECTION, null, null, null);
+        List<String> nextPlan = mProvider.explainQueryPlan(nextPageUri, PROJECTION, null, null, null);
+
+        assertTrue("Not a rowid scan: " + firstPlan, containsStep(firstPlan,
+                "SCAN (TABLE )?" + ProductEntry.TABLE_NAME + "( AS \\w+)?"));
+        assertTrue("Not a primary key search: " + nextPlan, containsStep(nextPlan,
+                "SEARCH (TABLE )?" + ProductEntry.TABLE_NAME + "\\b.*USING INTEGER PRIMARY KEY \\(rowid>\\?\\)"));
+        for (String step : concat(firstPlan, nextPlan)) {
+            assertFalse("Sorts the rows: " + step, step.contains("TEMP B-TREE"));
+        }
+
+        assertEquals(PAGE_SIZE, countRows(firstPageUri));
+        assertEquals(PAGE_SIZE, countRows(nextPageUri));
+    }
+
+    @Test
+    public void categoryFilterUsesIndexes() {
+        for (String sortColumn : SORT_COLUMNS) {
+            assertPagesUseIndex(sortColumn, ProductEntry.SELECTION_CATEGORY,
+                    String.valueOf(ProductEntry.CATEGORY_MALE));
+        }
+    }
+
+    @Test
+    public void priceRangeFilterUsesIndex() {
+        assertPagesUseIndex(ProductEntry.COLUMN_PRODUCT_PRICE, ProductEntry.SELECTION_PRICE_RANGE, "10", "50");
+    }
+
+    @Test
+    public void lowStockFilterUsesIndex() {
+        assertPagesUseIndex(ProductEntry.COLUMN_PRODUCT_QUANTITY, ProductEntry.SELECTION_LOW_STOCK,
+                String.valueOf(ProductEntry.LOW_STOCK_QUANTITY));
+    }
+
+    private static boolean containsStep(List<String> plan, String regex) {
+        for (String step : plan) {
+            if (step.matches(regex)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String> concat(List<String> first, List<String> second) {
+        List<String> steps = new ArrayList<>(first);
+        steps.addAll(second);
+        return steps;
+    }
+
+    private int countRows(Uri pageUri) {
+        Cursor cursor = mProvider.query(pageUri, PROJECTION, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues createProduct(int i) {
+        ContentValues values = new ContentValues();
+        values.put(ProductEntry.COLUMN_PRODUCT_NAME, "Product " + i);
+        values.put(ProductEntry.COLUMN_PRODUCT_CATEGORY, ProductEntry.CATEGORY_UNISEX);
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, "Supplier");
+        values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL, "supplier@example.com");
+        values.put(ProductEntry.COLUMN_PRODUCT_PRICE, i);
+        values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, i);
+        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, new byte[]{(byte) i});
+        return values;
+    }
+
+    /**
+     * Assert that the first page and a following page are read from an index. A filtered page
+     * has to search the index, not only scan it in order.
+     */
+    private void assertPagesUseIndex(String sortColumn, String selection, String... selectionArgs) {
+        Uri[] pageUris = {
+                ProductEntry.getPageUri(sortColumn, PAGE_SIZE, null, 0),
+                ProductEntry.getPageUri(sortColumn, PAGE_SIZE, "1", 1)
+        };
+        for (Uri pageUri : pageUris) {
+            List<String> plan = mProvider.explainQueryPlan(pageUri, PROJECTION, selection,
+                    selection == null ? null : selectionArgs, null);
+            String message = pageUri + " where " + selection + ": " + plan;
+
+            boolean searchesProducts = false;
+            for (String step : plan) {
+                boolean readsProducts = step.matches("(SCAN|SEARCH) (TABLE )?" + ProductEntry.TABLE_NAME + "\\b.*");
+                assertFalse("Full table scan, " + message, readsProducts && !step.contains("INDEX"));
+                assertFalse("Sorts the rows, " + message, step.contains("TEMP B-TREE"));
+                searchesProducts |= readsProducts && step.startsWith("SEARCH");
+            }
+            if (selection != null) {
+                assertTrue("Scans the whole index, " + message, searchesProducts);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Checks the order of the products the snapshot sorts and filters for the pages of the catalog,
+ * also after products were renamed and removed.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductSnapshotTest {
+
+    private static final int ANY_PRICE = Integer.MAX_VALUE;
+    private static final int ANY_QUANTITY = Integer.MAX_VALUE;
+
+    @Test
+    public void sortsByColumnThenById() {
+        ProductSnapshot snapshot = createSnapshot();
+
+        assertArrayEquals(new long[]{1, 2, 3, 4}, select(snapshot, ProductEntry._ID));
+        assertArrayEquals(new long[]{3, 1, 4, 2}, select(snapshot, ProductEntry.COLUMN_PRODUCT_NAME));
+        assertArrayEquals(new long[]{2, 4, 1, 3}, select(snapshot, ProductEntry.COLUMN_PRODUCT_PRICE));
+        assertArrayEquals(new long[]{4, 1, 3, 2}, select(snapshot, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    }
+
+    @Test
+    public void filtersBeforeSorting() {
+        ProductSnapshot snapshot = createSnapshot();
+
+        assertArrayEquals(new long[]{4, 2}, snapshot.select(ProductEntry.CATEGORY_FEMALE, 0, ANY_PRICE,
+                ANY_QUANTITY, ProductEntry.COLUMN_PRODUCT_NAME));
+        assertArrayEquals(new long[]{4, 1}, snapshot.select(ProductSnapshot.ANY_CATEGORY, 10, 20,
+                ANY_QUANTITY, ProductEntry.COLUMN_PRODUCT_QUANTITY));
+        assertArrayEquals(new long[]{1, 4}, snapshot.select(ProductSnapshot.ANY_CATEGORY, 0, ANY_PRICE,
+                3, ProductEntry.COLUMN_PRODUCT_NAME));
+    }
+
+    @Test
+    public void sortsByTheNamesAfterChanges() {
+        ProductSnapshot snapshot = createSnapshot();
+        select(snapshot, ProductEntry.COLUMN_PRODUCT_NAME);
+
+        // Renamed to the name of another product, which it precedes in the order of the ids, then
+        // to a new name
+        snapshot.put(createCursor(new Object[][]{{2L, ProductEntry.CATEGORY_FEMALE, 5, 9, "Apron"}}));
+        assertArrayEquals(new long[]{2, 3, 1, 4}, select(snapshot, ProductEntry.COLUMN_PRODUCT_NAME));
+        snapshot.put(createCursor(new Object[][]{{3L, ProductEntry.CATEGORY_MALE, 30, 6, "Zipper"}}));
+        assertArrayEquals(new long[]{2, 1, 4, 3}, select(snapshot, ProductEntry.COLUMN_PRODUCT_NAME));
+
+        snapshot.remove(1);
+        snapshot.put(createCursor(new Object[][]{{5L, ProductEntry.CATEGORY_UNISEX, 1, 1, "Belt"}}));
+        assertArrayEquals(new long[]{2, 5, 4, 3}, select(snapshot, ProductEntry.COLUMN_PRODUCT_NAME));
+    }
+
+    private static long[] select(ProductSnapshot snapshot, String sortColumn) {
+        return snapshot.select(ProductSnapshot.ANY_CATEGORY, 0, ANY_PRICE, ANY_QUANTITY, sortColumn);
+    }
+
+    /**
+     * Products 1 to 4 named Gloves, Tie, Apron and Scarf.
+     */
+    private static ProductSnapshot createSnapshot() {
+        return ProductSnapshot.read(createCursor(new Object[][]{
+                {1L, ProductEntry.CATEGORY_UNISEX, 20, 3, "Gloves"},
+                {2L, ProductEntry.CATEGORY_FEMALE, 5, 9, "Tie"},
+                {3L, ProductEntry.CATEGORY_MALE, 30, 6, "Apron"},
+                {4L, ProductEntry.CATEGORY_FEMALE, 10, 1, "Scarf"}
+        }));
+    }
+
+    /**
+     * Return a cursor over the values of the {@link ProductSnapshot#COLUMNS}, positioned on the
+     * first row for {@link ProductSnapshot#put}.
+     */
+    private static MatrixCursor createCursor(Object[][] rows) {
+        MatrixCursor cursor = new MatrixCursor(ProductSnapshot.COLUMNS);
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        cursor.moveToFirst();
+        return cursor;
+    }
+}
@@ -1,35 +1,222 @@
 package com.example.android.inventoryapp;
 
+import android.content.AsyncQueryHandler;
 import android.content.ContentUris;
+import android.content.ContentValues;
 import android.content.CursorLoader;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.widget.SimpleCursorAdapter;
+import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.support.v7.widget.SimpleItemAnimator;
+import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.util.SparseArray;
+import android.widget.EditText;
+import android.widget.FilterQueryProvider;
+import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.ProductContract;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 import com.example.android.inventoryapp.data.ProductDbHelper;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+
 public class CatalogActivity extends AppCompatActivity
-        implements android.app.LoaderManager.LoaderCallbacks<Cursor> {
+        implements android.app.LoaderManager.LoaderCallbacks<Cursor>, StockAdjustmentQueue.Listener,
+        ProductAdapter.OnProductClickListener {
 
+    /**
+     * Loader id of the first page of products, page n is loaded by PRODUCT_LOADER + n.
+     */
     private static final int PRODUCT_LOADER = 0;
+    /**
+     * Loader id of the search results.
+     */
+    private static final int SEARCH_LOADER = -1;
+    /**
+     * Loader argument with the search query.
+     */
+    private static final String ARG_SEARCH_QUERY = "search_query";
+    /**
+     * How long the search waits for the next keystroke before it queries.
+     */
+    private static final long SEARCH_DELAY_MILLIS = 250;
+    /**
+     * Most search results shown. A result with fewer rows is complete, so the results of a
+     * longer query are found in it without querying again.
+     */
+    private static final int SEARCH_LIMIT = 500;
+    /**
+     * Most names suggested below the search field, product names first, then supplier names.
+     */
+    private static final int MAX_SEARCH_SUGGESTIONS = 8;
+    private static final String COLUMN_SUGGESTION = "suggestion";
+    /**
+     * Number of products loaded per page.
+     */
+    static final int PAGE_SIZE = 50;
+    /**
+     * Loader argument with the ids of the products of a page, in the order they are shown.
+     */
+    private static final String ARG_PAGE_IDS = "page_ids";
+    /**
+     * Sort orders of the sort menu, and the column each one sorts by.
+     */
+    private static final int[] SORT_MENU_ITEMS = {
+            R.id.action_sort_date_added,
+            R.id.action_sort_name,
+            R.id.action_sort_category,
+            R.id.action_sort_price,
+            R.id.action_sort_quantity
+    };
+    private static final String[] SORT_COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_CATEGORY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY
+    };
+    /**
+     * Category filters of the filter menu, and the category each one shows.
+     */
+    private static final int[] CATEGORY_MENU_ITEMS = {
+            R.id.action_filter_unisex,
+            R.id.action_filter_male,
+            R.id.action_filter_female
+    };
+    private static final int[] CATEGORIES = {
+            ProductEntry.CATEGORY_UNISEX,
+            ProductEntry.CATEGORY_MALE,
+            ProductEntry.CATEGORY_FEMALE
+    };
+    /**
+     * Saved state of the sort order and the filter.
+     */
+    private static final String STATE_SORT_COLUMN = "sort_column";
+    private static final String STATE_FILTER_SELECTION = "filter_selection";
+    private static final String STATE_FILTER_ARGS = "filter_args";
+    /**
+     * Columns shown in the catalog, and the columns the pages may be sorted by and filtered by.
+     */
+    private static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_CATEGORY,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_ID,
+            ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION
+    };
+    /**
+     * Token of the queries for single changed products.
+     */
+    private static final int PATCH_QUERY_TOKEN = 1;
     /**
      * Database helper that will provide us access to the database
      */
     private ProductDbHelper mDbHelper;
     /**
-     * Cursor adapter
+     * Product adapter
+     */
+    private ProductAdapter productAdapter;
+    private RecyclerView mProductListView;
+    /**
+     * Column the pages are sorted by
+     */
+    private String mSortColumn = ProductEntry._ID;
+    /**
+     * Selection and arguments of the products shown in the pages, null for all products
+     */
+    private String mFilterSelection;
+    private String[] mFilterArgs;
+    /**
+     * Ids of all products of the pages in the order they are shown, sorted and filtered by the
+     * snapshot of the provider. Null until the order of the current sort and filter arrived.
+     */
+    private long[] mOrder;
+    /**
+     * Rows of the loaded pages of products by page number. Each page holds the rows of the next
+     * {@link #PAGE_SIZE} ids of the order, fetched by their ids.
+     */
+    private final SparseArray<ProductRows> mPages = new SparseArray<>();
+    /**
+     * Number of pages requested so far
+     */
+    private int mPageCount;
+    private View mEmptyView;
+    /**
+     * Words of the search shown instead of the pages, null while not searching
      */
-    private ProductCursorAdapter productAdapter;
+    private String[] mSearchTerms;
+    /**
+     * Words and rows of the last complete search result, null if there is none
+     */
+    private String[] mResultTerms;
+    private ProductRows mResultRows;
+    private final Handler mSearchHandler = new Handler();
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Bundle args = new Bundle();
+            args.putString(ARG_SEARCH_QUERY, TextUtils.join(" ", mSearchTerms));
+            // Cancels the query of the previous words if it still runs
+            getLoaderManager().restartLoader(SEARCH_LOADER, args, CatalogActivity.this);
+        }
+    };
+    /**
+     * Sorts and filters the products for the pages, null while it doesn't run
+     */
+    private SnapshotTask mOrderTask;
+    /**
+     * Sums up the shown products for the subtitle, null while it doesn't run
+     */
+    private SnapshotTask mTotalsTask;
+    /**
+     * The last deletion of all products, its error toast is dropped once the catalog is destroyed
+     */
+    private ProductWriter.Request<Integer> mDeleteAllRequest;
+    /**
+     * Queries changed products off the main thread
+     */
+    private AsyncQueryHandler mPatchQueryHandler;
+    /**
+     * Writes the sales behind the list
+     */
+    private StockAdjustmentQueue mStockAdjustments;
+    /**
+     * Observes the changes of the products. The pages are loaded without change notifications, so a
+     * change of a single product only refreshes its row instead of reloading every page.
+     */
+    private final ContentObserver mProductObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onProductChanged(uri);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -46,17 +233,29 @@ public class CatalogActivity extends AppCompatActivity
             }
         });
 
-        ListView productListView = (ListView) findViewById(R.id.list_view_product);
-        View emptyView = findViewById(R.id.empty_view);
-        productListView.setEmptyView(emptyView);
+        if (savedInstanceState != null) {
+            mSortColumn = savedInstanceState.getString(STATE_SORT_COLUMN);
+            mFilterSelection = savedInstanceState.getString(STATE_FILTER_SELECTION);
+            mFilterArgs = savedInstanceState.getStringArray(STATE_FILTER_ARGS);
+        }
+
+        RecyclerView productListView = (RecyclerView) findViewById(R.id.list_view_product);
+        mProductListView = productListView;
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        productListView.setLayoutManager(layoutManager);
+        productListView.setHasFixedSize(true);
+        // Changed rows are bound again in place instead of cross-fading with a copy of themselves
+        ((SimpleItemAnimator) productListView.getItemAnimator()).setSupportsChangeAnimations(false);
+        mEmptyView = findViewById(R.id.empty_view);
 
-        productListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        // Also called after every layout which changed the visible rows
+        productListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
-                Uri currentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
-                intent.setData(currentProductUri);
-                startActivity(intent);
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                // Fetch the next page before the user reaches the end of the loaded ones
+                if (layoutManager.findLastVisibleItemPosition() >= layoutManager.getItemCount() - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
             }
         });
 
@@ -64,17 +263,522 @@ public class CatalogActivity extends AppCompatActivity
         // and pass the context, which is the current activity.
         mDbHelper = new ProductDbHelper(this);
 
-        productAdapter = new ProductCursorAdapter(this, null);
+        mStockAdjustments = new StockAdjustmentQueue(ProductWriter.getInstance(this));
+        mStockAdjustments.setListener(this);
+
+        productAdapter = new ProductAdapter(this, mStockAdjustments, this);
+        productAdapter.registerAdapterDataObserver(new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateEmptyView();
+            }
+        });
         productListView.setAdapter(productAdapter);
-        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+        updateEmptyView();
+        // The pages are loaded once their order arrives, after a configuration change from the
+        // loaders which kept them if it didn't change
+        mPageCount = 1;
+        queryOrder(false);
+
+        mPatchQueryHandler = new AsyncQueryHandler(getContentResolver()) {
+            @Override
+            protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+                onPatchQueryComplete((Long) cookie, cursor);
+            }
+        };
+        getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI, true, mProductObserver);
+
+        if (savedInstanceState == null) {
+            // Shrink the images stored by older versions, once per launch of the catalog
+            ImageCompactionService.start(this);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT_COLUMN, mSortColumn);
+        outState.putString(STATE_FILTER_SELECTION, mFilterSelection);
+        outState.putStringArray(STATE_FILTER_ARGS, mFilterArgs);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Write the sales now instead of risking them while the activity is in the background
+        mStockAdjustments.flush();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        ImageLoader.getInstance(this).logStats();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        mStockAdjustments.setListener(null);
+        if (mDeleteAllRequest != null) {
+            mDeleteAllRequest.cancel();
+        }
+        getContentResolver().unregisterContentObserver(mProductObserver);
+        mPatchQueryHandler.cancelOperation(PATCH_QUERY_TOKEN);
+        if (mOrderTask != null) {
+            mOrderTask.cancel(false);
+        }
+        if (mTotalsTask != null) {
+            mTotalsTask.cancel(false);
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Open the editor for the clicked product.
+     */
+    @Override
+    public void onProductClick(long id) {
+        Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+        Uri currentProductUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id);
+        intent.setData(currentProductUri);
+        startActivity(intent);
+    }
+
+    /**
+     * Show the empty view instead of the list while there are no products.
+     */
+    private void updateEmptyView() {
+        mEmptyView.setVisibility(productAdapter.getItemCount() == 0 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Refresh the row of a product that was updated, unless the update moves it, or reload the
+     * pages for any other change.
+     */
+    private void onProductChanged(Uri uri) {
+        if (ProductContract.CHANGE_UPDATE.equals(ProductEntry.getChange(uri))) {
+            updateTotals();
+            queryPatch(ContentUris.parseId(uri));
+        } else {
+            // The new order comes with the new totals
+            reloadPages();
+        }
+    }
+
+    /**
+     * Query the current values of a product in the background to patch its row.
+     */
+    private void queryPatch(long id) {
+        Uri productUri = ContentUris.withAppendedId(ProductEntry.CONTENT_URI, id).buildUpon()
+                .appendQueryParameter(ProductContract.QUERY_PARAMETER_NOTIFY, "false")
+                .build();
+        mPatchQueryHandler.startQuery(PATCH_QUERY_TOKEN, id, productUri, PROJECTION, null, null, null);
+    }
+
+    /**
+     * Show the stored quantities of the sold products, until their patched rows arrive.
+     */
+    @Override
+    public void onQuantitiesAdjusted(long[] ids, int[] quantities, int[] unappliedDeltas) {
+        int unsoldCount = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (quantities[i] == -1) {
+                // The sale was rejected, so nothing was notified for the product
+                queryPatch(ids[i]);
+                productAdapter.notifyProductChanged(ids[i]);
+            } else {
+                productAdapter.setStoredQuantity(ids[i], quantities[i]);
+                // Sales beyond the stock are negative deltas which were not applied
+                unsoldCount -= Math.min(unappliedDeltas[i], 0);
+            }
+        }
+        if (unsoldCount > 0) {
+            Toast.makeText(this, getString(R.string.toast_sales_out_of_stock, unsoldCount),
+                    Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    /**
+     * Show the freshly queried values of a changed product in its row, or reload the rows if the
+     * change moves the product or takes it in or out of the pages or the search result.
+     */
+    private void onPatchQueryComplete(long id, Cursor cursor) {
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                // The product is gone by now
+                reloadPages();
+                return;
+            }
+            ContentValues values = getRowValues(cursor);
+            if (canPatch(id, values)) {
+                productAdapter.patchRow(id, values);
+            } else {
+                reloadPages();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Whether the changed product keeps its place in the loaded pages and in the shown search
+     * result, and stays in or out of both, so only its row has to show the new values.
+     */
+    private boolean canPatch(long id, ContentValues values) {
+        ShownProducts pages = ShownProducts.forPages(mSortColumn, mFilterSelection, mFilterArgs);
+        if (!pages.canPatch(getLoadedPages(), id, values)) {
+            return false;
+        }
+        return mSearchTerms == null
+                || ShownProducts.forSearch(mSearchTerms).canPatch(productAdapter.getRows(), id, values);
+    }
+
+    /**
+     * Return the values of the current row of the cursor. Unlike
+     * {@link DatabaseUtils#cursorRowToContentValues}, this keeps blobs, like the thumbnail, as bytes.
+     */
+    private static ContentValues getRowValues(Cursor cursor) {
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    values.putNull(cursor.getColumnName(i));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    values.put(cursor.getColumnName(i), cursor.getBlob(i));
+                    break;
+                default:
+                    values.put(cursor.getColumnName(i), cursor.getString(i));
+                    break;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Sort and filter the products again and reload every requested page, and the search, for
+     * changes which may add, remove or reorder products.
+     */
+    private void reloadPages() {
+        queryOrder(true);
+        // A result found in the last result may be out of date as well
+        mResultTerms = null;
+        mResultRows = null;
+        if (mSearchTerms != null) {
+            mSearchRunnable.run();
+        }
+    }
+
+    /**
+     * Show the pages sorted by the given column.
+     */
+    private void sortBy(String sortColumn) {
+        if (!sortColumn.equals(mSortColumn)) {
+            mSortColumn = sortColumn;
+            restartPages();
+        }
+    }
+
+    /**
+     * Show the pages of the products matching the selection, or of all products for a null selection.
+     */
+    private void setFilter(String selection, String... selectionArgs) {
+        mFilterSelection = selection;
+        mFilterArgs = selection == null ? null : selectionArgs;
+        restartPages();
+    }
+
+    /**
+     * Drop the loaded pages and load the first page of the current sort order and filter.
+     */
+    private void restartPages() {
+        for (int page = 1; page < mPageCount; page++) {
+            getLoaderManager().destroyLoader(PRODUCT_LOADER + page);
+        }
+        mPages.clear();
+        mPageCount = 1;
+        mOrder = null;
+        // The rows shown so far stay until the first page arrives
+        queryOrder(false);
+        mProductListView.scrollToPosition(0);
+    }
+
+    /**
+     * Sort and filter the products in the background, then load the requested pages of their
+     * order. The provider sorts them in memory, so this is cheap enough for every change.
+     *
+     * @param reload Whether the pages are fetched again even if they hold the same ids, because
+     *               the products changed
+     */
+    private void queryOrder(boolean reload) {
+        if (mOrderTask != null) {
+            mOrderTask.cancel(false);
+        }
+        // The order comes with the totals
+        if (mTotalsTask != null) {
+            mTotalsTask.cancel(false);
+            mTotalsTask = null;
+        }
+        Bundle extras = getSnapshotFilter();
+        extras.putString(ProductContract.EXTRA_SORT_COLUMN, mSortColumn);
+        mOrderTask = new SnapshotTask(extras, reload);
+        mOrderTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Load the requested pages of the new order, at least the first one, and drop the pages past
+     * its end.
+     */
+    private void onOrderLoaded(long[] order, boolean reload) {
+        mOrder = order;
+        int pageCount = Math.max(1, Math.min(mPageCount, (order.length + PAGE_SIZE - 1) / PAGE_SIZE));
+        for (int page = pageCount; page < mPageCount; page++) {
+            getLoaderManager().destroyLoader(PRODUCT_LOADER + page);
+            mPages.remove(page);
+        }
+        mPageCount = pageCount;
+        if (order.length == 0) {
+            getLoaderManager().destroyLoader(PRODUCT_LOADER);
+            mPages.put(0, ProductRows.EMPTY);
+            showPages();
+            return;
+        }
+        for (int page = 0; page < mPageCount; page++) {
+            loadPage(page, reload);
+        }
+    }
+
+    /**
+     * Fetch the rows of the ids of the page of the order. A loader which holds the same ids keeps
+     * its rows, unless they are reloaded.
+     */
+    private void loadPage(int page, boolean reload) {
+        int start = page * PAGE_SIZE;
+        long[] ids = Arrays.copyOfRange(mOrder, start, Math.min(start + PAGE_SIZE, mOrder.length));
+        Bundle args = new Bundle();
+        args.putLongArray(ARG_PAGE_IDS, ids);
+        Loader<Cursor> loader = getLoaderManager().getLoader(PRODUCT_LOADER + page);
+        if (!reload && loader != null && Arrays.equals(ids, getPageIds(loader))) {
+            // Hands over the rows it holds
+            getLoaderManager().initLoader(PRODUCT_LOADER + page, args, this);
+        } else {
+            getLoaderManager().restartLoader(PRODUCT_LOADER + page, args, this);
+        }
+    }
+
+    /**
+     * Return the ids the loader of a page fetches, in the order they are shown.
+     */
+    private static long[] getPageIds(Loader<Cursor> loader) {
+        String[] idArgs = ((CursorLoader) loader).getSelectionArgs();
+        long[] ids = new long[idArgs.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = Long.parseLong(idArgs[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Sum up the products of the current filter in the background and show the totals in the
+     * subtitle. The provider sums them in memory, so this is cheap enough for every change.
+     */
+    private void updateTotals() {
+        if (mTotalsTask != null) {
+            mTotalsTask.cancel(false);
+        }
+        mTotalsTask = new SnapshotTask(getSnapshotFilter(), false);
+        mTotalsTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Return the current filter as the extras of {@link ProductContract#METHOD_QUERY_SNAPSHOT}.
+     */
+    private Bundle getSnapshotFilter() {
+        Bundle extras = new Bundle();
+        if (ProductEntry.SELECTION_CATEGORY.equals(mFilterSelection)) {
+            extras.putInt(ProductContract.EXTRA_CATEGORY, Integer.parseInt(mFilterArgs[0]));
+        } else if (ProductEntry.SELECTION_PRICE_RANGE.equals(mFilterSelection)) {
+            extras.putInt(ProductContract.EXTRA_MIN_PRICE, Integer.parseInt(mFilterArgs[0]));
+            extras.putInt(ProductContract.EXTRA_MAX_PRICE, Integer.parseInt(mFilterArgs[1]));
+        } else if (ProductEntry.SELECTION_LOW_STOCK.equals(mFilterSelection)) {
+            extras.putInt(ProductContract.EXTRA_MAX_QUANTITY, Integer.parseInt(mFilterArgs[0]));
+        }
+        return extras;
+    }
+
+    /**
+     * Ask for the lowest and highest price of the products to show.
+     */
+    private void showPriceRangeDialog() {
+        final View view = getLayoutInflater().inflate(R.layout.dialog_price_range, null);
+        final EditText lowestPriceEditText = (EditText) view.findViewById(R.id.edit_lowest_price);
+        final EditText highestPriceEditText = (EditText) view.findViewById(R.id.edit_highest_price);
+        if (ProductEntry.SELECTION_PRICE_RANGE.equals(mFilterSelection)) {
+            lowestPriceEditText.setText(mFilterArgs[0]);
+            highestPriceEditText.setText(mFilterArgs[1]);
+        }
 
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.category_price);
+        builder.setView(view);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int id) {
+                int lowest = parsePrice(lowestPriceEditText, 0);
+                int highest = parsePrice(highestPriceEditText, Integer.MAX_VALUE);
+                setFilter(ProductEntry.SELECTION_PRICE_RANGE,
+                        String.valueOf(Math.min(lowest, highest)), String.valueOf(Math.max(lowest, highest)));
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Return the price typed into the field, or the default value if it is empty or too large.
+     */
+    private static int parsePrice(EditText editText, int defaultValue) {
+        try {
+            return Integer.parseInt(editText.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Search for the products matching the typed text. Typing more of the same words narrows the
+     * last complete result right away. Otherwise the provider is queried once no key was typed
+     * for a moment, and the rows shown so far stay until its result arrives.
+     */
+    private void search(String text) {
+        mSearchHandler.removeCallbacks(mSearchRunnable);
+        String[] terms = ProductEntry.getSearchTerms(text);
+        if (terms.length == 0) {
+            endSearch();
+            return;
+        }
+        if (mSearchTerms != null && Arrays.equals(terms, mSearchTerms)) {
+            // Only spacing or punctuation changed
+            return;
+        }
+        mSearchTerms = terms;
+
+        if (mResultRows != null && narrows(terms, mResultTerms)) {
+            // The rows of the longer words are all in the last result
+            getLoaderManager().destroyLoader(SEARCH_LOADER);
+            mResultRows = mResultRows.search(terms);
+            mResultTerms = terms;
+            productAdapter.submitRows(mResultRows);
+            return;
+        }
+        mSearchHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MILLIS);
     }
 
     /**
-     * Delete all products from the database.
+     * Whether every row matching the terms also matches the previous terms: the terms continue
+     * each previous term, and may add more.
+     */
+    private static boolean narrows(String[] terms, String[] previousTerms) {
+        if (terms.length < previousTerms.length) {
+            return false;
+        }
+        for (int i = 0; i < previousTerms.length; i++) {
+            if (!terms[i].startsWith(previousTerms[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Show the pages of all products again.
+     */
+    private void endSearch() {
+        if (mSearchTerms == null) {
+            return;
+        }
+        mSearchTerms = null;
+        mResultTerms = null;
+        mResultRows = null;
+        getLoaderManager().destroyLoader(SEARCH_LOADER);
+        showPages();
+    }
+
+    /**
+     * Request the page after the last loaded one, if the order has more products and no page is
+     * still loading.
+     */
+    private void loadNextPage() {
+        if (mSearchTerms != null || mOrder == null || mPageCount * PAGE_SIZE >= mOrder.length
+                || mPages.get(mPageCount - 1) == null) {
+            return;
+        }
+        mPageCount++;
+        loadPage(mPageCount - 1, false);
+    }
+
+    /**
+     * Show all contiguous loaded pages in the list.
+     */
+    private void showPages() {
+        if (mSearchTerms != null) {
+            // The pages are kept up to date, but the search results are shown
+            return;
+        }
+        productAdapter.submitRows(getLoadedPages());
+    }
+
+    /**
+     * Return the rows of all contiguous loaded pages.
+     */
+    private ProductRows getLoadedPages() {
+        ProductRows[] pages = new ProductRows[mPageCount];
+        int count = 0;
+        while (count < mPageCount && mPages.get(count) != null) {
+            pages[count] = mPages.get(count);
+            count++;
+        }
+        return ProductRows.concat(pages, count);
+    }
+
+    /**
+     * Delete all products from the database in the background. The list follows the change
+     * notification of the provider.
      */
     private void deleteAllProducts() {
-        getContentResolver().delete(ProductEntry.CONTENT_URI, null, null);
+        mDeleteAllRequest = ProductWriter.getInstance(this).delete(ProductEntry.CONTENT_URI, null, null,
+                new ProductWriter.Callback<Integer>() {
+                    @Override
+                    public void onWritten(Integer deleteCount) {
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Toast.makeText(CatalogActivity.this, R.string.error_delete_all, Toast.LENGTH_SHORT).show();
+                    }
+                });
     }
 
     @Override
@@ -82,13 +786,123 @@ public class CatalogActivity extends AppCompatActivity
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        setupSearchSuggestions(searchView);
+        // Collapsing the search view clears its text, which ends the search
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return false;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
         return true;
     }
 
+    /**
+     * Suggest product and supplier names below the search field while the query is typed. Picking
+     * one searches for it.
+     */
+    private void setupSearchSuggestions(final SearchView searchView) {
+        final SimpleCursorAdapter suggestionAdapter = new SimpleCursorAdapter(this,
+                android.R.layout.simple_list_item_1, null, new String[]{COLUMN_SUGGESTION},
+                new int[]{android.R.id.text1}, 0);
+        // Runs on the background thread of the filter
+        suggestionAdapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                return constraint == null ? null : querySearchSuggestions(constraint.toString());
+            }
+        });
+        searchView.setSuggestionsAdapter(suggestionAdapter);
+        searchView.setOnSuggestionListener(new SearchView.OnSuggestionListener() {
+            @Override
+            public boolean onSuggestionSelect(int position) {
+                return false;
+            }
+
+            @Override
+            public boolean onSuggestionClick(int position) {
+                Cursor cursor = suggestionAdapter.getCursor();
+                if (cursor != null && cursor.moveToPosition(position)) {
+                    searchView.setQuery(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SUGGESTION)), false);
+                }
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Return the product names and then the supplier names suggested for the search text, each
+     * name once.
+     */
+    private Cursor querySearchSuggestions(String text) {
+        ArrayList<String> names = new ArrayList<>();
+        String[] columns = {ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME};
+        for (String column : columns) {
+            for (String name : NameSuggestionAdapter.suggest(getContentResolver(), column, text)) {
+                if (names.size() < MAX_SEARCH_SUGGESTIONS && !names.contains(name)) {
+                    names.add(name);
+                }
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(new String[]{ProductEntry._ID, COLUMN_SUGGESTION}, names.size());
+        for (int i = 0; i < names.size(); i++) {
+            cursor.addRow(new Object[]{i, names.get(i)});
+        }
+        return cursor;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        for (int i = 0; i < SORT_MENU_ITEMS.length; i++) {
+            menu.findItem(SORT_MENU_ITEMS[i]).setChecked(SORT_COLUMNS[i].equals(mSortColumn));
+        }
+
+        int filterItemId = R.id.action_filter_none;
+        if (ProductEntry.SELECTION_CATEGORY.equals(mFilterSelection)) {
+            int categoryIndex = indexOf(CATEGORIES, Integer.parseInt(mFilterArgs[0]));
+            filterItemId = CATEGORY_MENU_ITEMS[categoryIndex];
+        } else if (ProductEntry.SELECTION_PRICE_RANGE.equals(mFilterSelection)) {
+            filterItemId = R.id.action_filter_price_range;
+        } else if (ProductEntry.SELECTION_LOW_STOCK.equals(mFilterSelection)) {
+            filterItemId = R.id.action_filter_low_stock;
+        }
+        menu.findItem(filterItemId).setChecked(true);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
+        int sortIndex = indexOf(SORT_MENU_ITEMS, item.getItemId());
+        if (sortIndex != -1) {
+            sortBy(SORT_COLUMNS[sortIndex]);
+            return true;
+        }
+        int categoryIndex = indexOf(CATEGORY_MENU_ITEMS, item.getItemId());
+        if (categoryIndex != -1) {
+            setFilter(ProductEntry.SELECTION_CATEGORY, String.valueOf(CATEGORIES[categoryIndex]));
+            return true;
+        }
+
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            case R.id.action_filter_none:
+                setFilter(null);
+                return true;
+            case R.id.action_filter_price_range:
+                showPriceRangeDialog();
+                return true;
+            case R.id.action_filter_low_stock:
+                setFilter(ProductEntry.SELECTION_LOW_STOCK, String.valueOf(ProductEntry.LOW_STOCK_QUANTITY));
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 deleteAllProducts();
@@ -104,28 +918,122 @@ public class CatalogActivity extends AppCompatActivity
 
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY,
-                ProductEntry.COLUMN_PRODUCT_PRICE
-        };
+        if (id == SEARCH_LOADER) {
+            // Changes reach the search through mProductObserver like the pages. The loader
+            // cancels the query in the database when it is restarted for newer words.
+            Uri searchUri = ProductEntry.getSearchUri(args.getString(ARG_SEARCH_QUERY), SEARCH_LIMIT).buildUpon()
+                    .appendQueryParameter(ProductContract.QUERY_PARAMETER_NOTIFY, "false")
+                    .build();
+            return new CursorLoader(this, searchUri, PROJECTION, null, null, null);
+        }
+
+        // The pages are sorted and filtered by the snapshot already, they only fetch the rows of
+        // their ids. They are not notified of changes, mProductObserver takes care of them.
+        long[] ids = args.getLongArray(ARG_PAGE_IDS);
+        String[] idArgs = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            idArgs[i] = String.valueOf(ids[i]);
+        }
+        Uri pageUri = ProductEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(ProductContract.QUERY_PARAMETER_NOTIFY, "false")
+                .build();
 
         return new CursorLoader(this,
-                ProductEntry.CONTENT_URI,
-                projection,
-                null,
-                null,
+                pageUri,
+                PROJECTION,
+                ProductEntry.getIdSelection(ids.length),
+                idArgs,
                 null);
     }
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        productAdapter.swapCursor(data);
+        if (loader.getId() == SEARCH_LOADER) {
+            onSearchLoadFinished((CursorLoader) loader, data);
+            return;
+        }
+        int page = loader.getId() - PRODUCT_LOADER;
+        // The list only keeps the shown values, the loader keeps the cursor. A product deleted
+        // since the order was queried has no row, the order is queried again for its deletion.
+        ProductRows rows = ProductRows.read(data, productAdapter.getThumbnailSize())
+                .inOrder(getPageIds(loader));
+        mPages.put(page, rows);
+        productAdapter.clearPatchedRows(rows);
+        showPages();
+    }
+
+    /**
+     * Show the search result, and keep it for narrowing it down if it is complete.
+     */
+    private void onSearchLoadFinished(CursorLoader loader, Cursor data) {
+        String[] terms = ProductEntry.getSearchTerms(loader.getUri().getLastPathSegment());
+        if (mSearchTerms == null || !Arrays.equals(terms, mSearchTerms)) {
+            return;
+        }
+        ProductRows rows = ProductRows.read(data, productAdapter.getThumbnailSize());
+        productAdapter.clearPatchedRows(rows);
+        if (rows.count < SEARCH_LIMIT) {
+            mResultTerms = terms;
+            mResultRows = rows;
+        }
+        productAdapter.submitRows(rows);
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
-        productAdapter.swapCursor(null);
+        if (loader.getId() == SEARCH_LOADER) {
+            return;
+        }
+        // A restarted page resets its previous loader after the new one delivered its data
+        Loader<Cursor> current = getLoaderManager().getLoader(loader.getId());
+        if (current != null && current != loader) {
+            return;
+        }
+        mPages.remove(loader.getId() - PRODUCT_LOADER);
+        showPages();
+    }
+
+    /**
+     * Queries the totals of the products matching a filter from the snapshot of the provider,
+     * and their order if the extras have a sort column.
+     */
+    private class SnapshotTask extends AsyncTask<Void, Void, Bundle> {
+
+        private final Bundle mExtras;
+        private final boolean mReload;
+
+        /**
+         * @param reload Whether the pages of the order are fetched again, see {@link #queryOrder}
+         */
+        SnapshotTask(Bundle extras, boolean reload) {
+            mExtras = extras;
+            mReload = reload;
+        }
+
+        @Override
+        protected Bundle doInBackground(Void... params) {
+            return getContentResolver().call(ProductEntry.CONTENT_URI,
+                    ProductContract.METHOD_QUERY_SNAPSHOT, null, mExtras);
+        }
+
+        @Override
+        protected void onPostExecute(Bundle totals) {
+            if (mOrderTask == this) {
+                mOrderTask = null;
+                if (totals != null) {
+                    onOrderLoaded(totals.getLongArray(ProductContract.EXTRA_PRODUCT_IDS), mReload);
+                }
+            } else if (mTotalsTask == this) {
+                mTotalsTask = null;
+            } else {
+                return;
+            }
+            if (totals != null && getSupportActionBar() != null) {
+                getSupportActionBar().setSubtitle(getString(R.string.catalog_totals,
+                        totals.getInt(ProductContract.EXTRA_PRODUCT_COUNT),
+                        totals.getLong(ProductContract.EXTRA_TOTAL_QUANTITY),
+                        totals.getLong(ProductContract.EXTRA_TOTAL_VALUE)));
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,7 +2,10 @@ package com.example.android.inventoryapp;
 
 import android.app.Activity;
 import android.app.LoaderManager.LoaderCallbacks;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -10,9 +13,8 @@ import android.content.Loader;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.NavUtils;
@@ -28,19 +30,17 @@ import android.view.ViewGroup;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.AutoCompleteTextView;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.inventoryapp.data.ProductContract.ImageEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
 import com.example.android.inventoryapp.data.ProductDbHelper;
 
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStream;
-
 import static com.example.android.inventoryapp.R.string.category_male;
 
 /**
@@ -50,9 +50,10 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
 
     private static final String LOG_TAG = EditorActivity.class.getSimpleName();
     private static final int PICK_IMAGE_REQUEST = 1;
+    private static final String STATE_SAVING = "saving";
     private static int PRODUCT_LOADER = 2;
-    private EditText mNameEditText;
-    private EditText mSupplierEditText;
+    private AutoCompleteTextView mNameEditText;
+    private AutoCompleteTextView mSupplierEditText;
     private EditText mPriceEditText;
     private EditText mSupplierEmailEditText;
     private EditText mQuantityEditText;
@@ -68,6 +69,51 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
     private Uri currentProductUri;
     private boolean mProductHasChanged;
     private boolean mImageAdded = false;
+    /**
+     * Whether another image was picked. The stored image is only shown at the size of the view,
+     * so it is not written back unless it was replaced.
+     */
+    private boolean mImageChanged;
+    /**
+     * The picked image and its thumbnail encoded for storage, set once its import finished
+     */
+    private byte[] mImageBytes;
+    private byte[] mThumbnailBytes;
+    /**
+     * Rotation of the picked image from its EXIF orientation, stored instead of rotating its pixels
+     */
+    private int mImageRotation;
+    /**
+     * Imports the picked image in the background, null if no import is running
+     */
+    private ImportImageTask mImportTask;
+    /**
+     * Looks up the names similar to the one typed into the field that lost focus last
+     */
+    private SimilarNameTask mSimilarNameTask;
+    /**
+     * Id of the stored image of the product, or -1 before the product is loaded
+     */
+    private long mStoredImageId = -1;
+    /**
+     * Values of the product as they were loaded, so saving only writes the columns that changed
+     */
+    private ContentValues mLoadedValues;
+    /**
+     * Size the image is decoded at for the image view: at most the width of the screen,
+     * and the fixed height of the view
+     */
+    private int mImageWidth;
+    private int mImageHeight;
+    /**
+     * Whether the product is being saved, so it is not saved twice
+     */
+    private boolean mSaving;
+    /**
+     * The running save, handed over to the next instance of the editor when it is recreated,
+     * null if the product is not being saved
+     */
+    private PendingSave mPendingSave;
     private View.OnTouchListener mTouchListener = new View.OnTouchListener() {
         @Override
         public boolean onTouch(View view, MotionEvent motionEvent) {
@@ -97,8 +143,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         currentProductUri = intent.getData();
 
         // Find all relevant views that we will need to read user input from
-        mNameEditText = (EditText) findViewById(R.id.edit_product_name);
-        mSupplierEditText = (EditText) findViewById(R.id.edit_product_supplier_name);
+        mNameEditText = (AutoCompleteTextView) findViewById(R.id.edit_product_name);
+        mSupplierEditText = (AutoCompleteTextView) findViewById(R.id.edit_product_supplier_name);
         mSupplierEmailEditText = (EditText) findViewById(R.id.edit_product_supplier_email);
         mPriceEditText = (EditText) findViewById(R.id.edit_product_price);
         mQuantityEditText = (EditText) findViewById(R.id.edit_product_quantity);
@@ -108,6 +154,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         mDecreaseQuantityButton = (Button) findViewById(R.id.button_decrease_quantity);
         mProductImageView = (ImageView) findViewById(R.id.product_image_view);
         mChooseImageButton = (Button) findViewById(R.id.button_choose_image);
+        mImageWidth = getResources().getDisplayMetrics().widthPixels;
+        mImageHeight = getResources().getDimensionPixelSize(R.dimen.product_image_height);
 
         if (currentProductUri == null) {
             setTitle(getString(R.string.add_a_product));
@@ -156,10 +204,60 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         });
 
         setupSpinner();
+        setupNameSuggestions(mNameEditText, ProductEntry.COLUMN_PRODUCT_NAME);
+        setupNameSuggestions(mSupplierEditText, ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
 
         // To access our database, we instantiate our subclass of SQLiteOpenHelper
         // and pass the context, which is the current activity.
         mDbHelper = new ProductDbHelper(this);
+
+        if (savedInstanceState != null) {
+            mSaving = savedInstanceState.getBoolean(STATE_SAVING);
+        }
+        mPendingSave = (PendingSave) getLastCustomNonConfigurationInstance();
+        if (mPendingSave != null) {
+            // Recreated while saving, the result comes to this instance now
+            mPendingSave.attach(this);
+        } else if (mSaving) {
+            // The app was stopped while saving, the product was written or lost with it.
+            // Saving it again could store it twice.
+            finish();
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_SAVING, mSaving);
+    }
+
+    @Override
+    public Object onRetainCustomNonConfigurationInstance() {
+        return mPendingSave;
+    }
+
+    @Override
+    protected void onDestroy() {
+        // The picked image is not needed anymore
+        if (mImportTask != null) {
+            mImportTask.cancel(false);
+            mImportTask = null;
+        }
+        if (mSimilarNameTask != null) {
+            mSimilarNameTask.cancel(false);
+            mSimilarNameTask = null;
+        }
+        if (mPendingSave != null) {
+            if (isChangingConfigurations()) {
+                // Kept for the next instance
+                mPendingSave.detach();
+            } else {
+                // The product is still written, only the result is not shown
+                mPendingSave.cancel();
+            }
+            mPendingSave = null;
+        }
+        super.onDestroy();
     }
 
     /**
@@ -201,6 +299,41 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         });
     }
 
+    /**
+     * Suggest the stored names of the column while the name is typed into the field, and warn
+     * about a similar stored name once the field loses focus, so the same name isn't stored in
+     * two spellings.
+     */
+    private void setupNameSuggestions(final AutoCompleteTextView field, final String column) {
+        field.setAdapter(new NameSuggestionAdapter(this, column));
+        field.setOnFocusChangeListener(new View.OnFocusChangeListener() {
+            @Override
+            public void onFocusChange(View view, boolean hasFocus) {
+                String name = field.getText().toString().trim();
+                boolean unchanged = mLoadedValues != null && name.equals(mLoadedValues.getAsString(column));
+                // Not once the product is saved or the editor is left, nobody would see the warning
+                if (hasFocus || TextUtils.isEmpty(name) || unchanged || mSaving || isFinishing()) {
+                    return;
+                }
+                if (mSimilarNameTask != null) {
+                    mSimilarNameTask.cancel(false);
+                }
+                mSimilarNameTask = new SimilarNameTask(getContentResolver(), field, column, name);
+                mSimilarNameTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            }
+        });
+    }
+
+    /**
+     * Show a loaded name in the field without suggesting names for it.
+     */
+    private static void setLoadedText(AutoCompleteTextView field, String text) {
+        ArrayAdapter<?> adapter = (ArrayAdapter<?>) field.getAdapter();
+        field.setAdapter(null);
+        field.setText(text);
+        field.setAdapter(adapter);
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu options from the res/menu/menu_editor.xml file.
@@ -215,9 +348,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                if (saveProduct()) {
-                    finish();
-                }
+                saveProduct();
                 return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
@@ -251,7 +382,14 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         return super.onOptionsItemSelected(item);
     }
 
-    private boolean saveProduct() {
+    /**
+     * Validate the input and save the product in the background. The editor closes once it is saved.
+     */
+    private void saveProduct() {
+        if (mSaving) {
+            return;
+        }
+
         // Read from input fields
         String nameString = mNameEditText.getText().toString().trim();
         String supplierString = mSupplierEditText.getText().toString().trim();
@@ -259,9 +397,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         String quantityString = mQuantityEditText.getText().toString().trim();
         String priceString = mPriceEditText.getText().toString().trim();
 
-        Bitmap bitmap = ((BitmapDrawable) mProductImageView.getDrawable()).getBitmap();
-        byte[] imageByteArray = ImageUtils.getBytes(bitmap);
-
         if (currentProductUri == null) {
             if (TextUtils.isEmpty(nameString)
                     && TextUtils.isEmpty(supplierString)
@@ -269,10 +404,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
                     && TextUtils.isEmpty(priceString)) {
                 // Since no fields were modified, we can return early without creating a new product.
                 // No need to create ContentValues and no need to do any ContentProvider operations.
-                return true;
+                finish();
+                return;
             }
         }
 
+        if (mImportTask != null) {
+            Toast.makeText(this, R.string.toast_image_importing, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
         if (TextUtils.isEmpty(nameString)
                 || TextUtils.isEmpty(supplierString)
                 || TextUtils.isEmpty(supplierEmailString)
@@ -280,7 +421,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
                 || Integer.valueOf(quantityString) <= 0
                 || mImageAdded == false) {
             Toast.makeText(this, R.string.toast_fill_all_fields, Toast.LENGTH_SHORT).show();
-            return false;
+            return;
         }
 
         // Create a new map of values, where column names are the keys
@@ -290,7 +431,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, supplierString);
         values.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL, supplierEmailString);
         values.put(ProductEntry.COLUMN_PRODUCT_PRICE, priceString);
-        values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, imageByteArray);
 
         int quantity = 0;
         if (!TextUtils.isEmpty(quantityString)) {
@@ -298,37 +438,152 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         }
         values.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
 
-        if (currentProductUri == null) {
-            Uri newUri = getContentResolver().insert(ProductEntry.CONTENT_URI, values);
-            // Show a toast message depending on whether or not the insertion was successful
-            if (newUri == null) {
-                // there was an error with insertion
-                Toast.makeText(this, R.string.editor_insert_product_failed, Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast with the row ID.
-                Toast.makeText(this, R.string.editor_insert_product_successful, Toast.LENGTH_SHORT).show();
+        // The picked image was already encoded when it was imported
+        if (mImageChanged) {
+            values.put(ProductEntry.COLUMN_PRODUCT_IMAGE, mImageBytes);
+            values.put(ProductEntry.COLUMN_PRODUCT_THUMBNAIL, mThumbnailBytes);
+            values.put(ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION, mImageRotation);
+        }
+
+        if (currentProductUri != null) {
+            removeUnchangedValues(values);
+            if (values.size() == 0) {
+                // Nothing to write
+                finish();
+                return;
             }
+        }
+        mSaving = true;
+        writeProduct(currentProductUri, values);
+    }
+
+    /**
+     * Remove the values which are the same as the loaded ones. An unchanged quantity is not written
+     * either, so it can't overwrite sales stored while the editor was open.
+     */
+    private void removeUnchangedValues(ContentValues values) {
+        if (mLoadedValues == null) {
+            return;
+        }
+        for (String key : mLoadedValues.keySet()) {
+            String loadedValue = mLoadedValues.getAsString(key);
+            if (loadedValue != null && loadedValue.equals(values.getAsString(key))) {
+                values.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Insert or update the product in the background, then report the result and close the editor.
+     *
+     * @param productUri URI of the product to update, or null to insert a new product
+     * @param values     Values of the product, with the image only if it was replaced
+     */
+    private void writeProduct(Uri productUri, ContentValues values) {
+        ProductWriter writer = ProductWriter.getInstance(this);
+        mPendingSave = new PendingSave(this);
+        if (productUri == null) {
+            mPendingSave.start(writer.insert(ProductEntry.CONTENT_URI, values,
+                    mPendingSave.newInsertCallback()));
         } else {
-            int updateCount = getContentResolver().update(currentProductUri,
-                    values,
-                    null,
-                    null);
-            // Show a toast message depending on whether or not the update was successful
-            if (updateCount < 1) {
-                // there was an error with insertion
-                Toast.makeText(this, R.string.error_update, Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast with the row ID.
-                Toast.makeText(this, R.string.editor_insert_product_successful, Toast.LENGTH_SHORT).show();
+            mPendingSave.start(writer.update(productUri, values, null, null,
+                    mPendingSave.newUpdateCallback()));
+        }
+    }
+
+    private void onProductSaved(boolean saved, int errorResId) {
+        mPendingSave = null;
+        // Show a toast message depending on whether or not the save was successful
+        if (saved) {
+            Toast.makeText(this, R.string.editor_insert_product_successful, Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(this, errorResId, Toast.LENGTH_SHORT).show();
+        }
+        finish();
+    }
+
+    /**
+     * A save which outlives the editor instance that started it. The callbacks of the writer only
+     * reference this, not an activity. The result is handed to the attached editor, or kept until
+     * the recreated editor attaches.
+     */
+    private static class PendingSave {
+        private EditorActivity mActivity;
+        private ProductWriter.Request<?> mRequest;
+        private boolean mDone;
+        private boolean mSaved;
+        private int mErrorResId;
+
+        PendingSave(EditorActivity activity) {
+            mActivity = activity;
+        }
+
+        void start(ProductWriter.Request<?> request) {
+            mRequest = request;
+        }
+
+        ProductWriter.Callback<Uri> newInsertCallback() {
+            return new ProductWriter.Callback<Uri>() {
+                @Override
+                public void onWritten(Uri newUri) {
+                    finish(newUri != null, R.string.editor_insert_product_failed);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    finish(false, R.string.editor_insert_product_failed);
+                }
+            };
+        }
+
+        ProductWriter.Callback<Integer> newUpdateCallback() {
+            return new ProductWriter.Callback<Integer>() {
+                @Override
+                public void onWritten(Integer updateCount) {
+                    finish(updateCount > 0, R.string.error_update);
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    finish(false, R.string.error_update);
+                }
+            };
+        }
+
+        void attach(EditorActivity activity) {
+            mActivity = activity;
+            if (mDone) {
+                activity.onProductSaved(mSaved, mErrorResId);
             }
+        }
 
+        void detach() {
+            mActivity = null;
+        }
+
+        /**
+         * Drop the result, no editor is going to show it.
+         */
+        void cancel() {
+            mActivity = null;
+            mRequest.cancel();
+        }
+
+        private void finish(boolean saved, int errorResId) {
+            mDone = true;
+            mSaved = saved;
+            mErrorResId = errorResId;
+            if (mActivity != null) {
+                mActivity.onProductSaved(saved, errorResId);
+            }
         }
-        return true;
     }
 
     @Override
     public Loader onCreateLoader(int id, Bundle args) {
         // make sure it is using a URI for one product.
+        // Only the columns of the products table, so the form shows up without reading anything
+        // of the image. The image is loaded on its own once its id is known.
         String[] projection = {
                 ProductEntry._ID,
                 ProductEntry.COLUMN_PRODUCT_NAME,
@@ -337,7 +592,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
                 ProductEntry.COLUMN_PRODUCT_PRICE,
                 ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
                 ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
-                ProductEntry.COLUMN_PRODUCT_IMAGE
+                ProductEntry.COLUMN_PRODUCT_IMAGE_ID
         };
 
         return new CursorLoader(this,
@@ -364,19 +619,31 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
                     data.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_QUANTITY));
             final Integer mCategory = data.getInt(
                     data.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_CATEGORY));
-            final byte[] mImage = data.getBlob(
-                    data.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_IMAGE));
+            final long mImageId = data.getLong(
+                    data.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_IMAGE_ID));
+
+            // Remember the loaded values to tell which ones the user changed
+            mLoadedValues = new ContentValues();
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_NAME, mNameString);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_CATEGORY, mCategory);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME, mSupplierNameString);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL, mSupplierEmailString);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_PRICE, mPriceString);
+            mLoadedValues.put(ProductEntry.COLUMN_PRODUCT_QUANTITY, mQuantity);
 
             //update the inputs with the data for the product.
-            mNameEditText.setText(mNameString);
+            setLoadedText(mNameEditText, mNameString);
             mPriceEditText.setText(mPriceString);
-            mSupplierEditText.setText(mSupplierNameString);
+            setLoadedText(mSupplierEditText, mSupplierNameString);
             mSupplierEmailEditText.setText(mSupplierEmailString);
             mQuantityEditText.setText(Integer.toString(mQuantity));
             mCategorySpinner.setSelection(mCategory);
 
-            mProductImageView.setImageBitmap(ImageUtils.getImage(mImage));
-            mImageAdded = true;
+            // A picked image is kept until the product is saved
+            mStoredImageId = mImageId;
+            if (!mImageChanged) {
+                loadStoredImage();
+            }
 
             mOrderMoreButton.setVisibility(View.VISIBLE);
             mOrderMoreButton.setOnClickListener(new View.OnClickListener() {
@@ -430,7 +697,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         mSupplierEmailEditText.setText("");
         mQuantityEditText.setText("0");
         mCategorySpinner.setSelection(0);
-        mProductImageView.setImageDrawable(getResources().getDrawable(R.drawable.ic_empty_image));
+        ImageLoader.getInstance(this).clear(mProductImageView, R.drawable.ic_empty_image);
+        mImageAdded = false;
+        mLoadedValues = null;
     }
 
     private void showUnsavedChangesDialog(
@@ -508,17 +777,31 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
     }
 
     /**
-     * Perform the deletion of the product in the database.
+     * Delete the product in the background and close the editor right away.
      */
     private void deleteProduct() {
-        if (currentProductUri != null) {
-            int deleteCount = getContentResolver().delete(currentProductUri, null, null);
-            if (deleteCount == 0) {
-                Toast.makeText(this, R.string.error_delete, Toast.LENGTH_SHORT).show();
-            } else {
-                Toast.makeText(this, R.string.product_deleted, Toast.LENGTH_SHORT).show();
-            }
+        if (currentProductUri == null) {
+            finish();
+            return;
         }
+        // The result is shown as a toast, which outlives the editor
+        final Context appContext = getApplicationContext();
+        ProductWriter.getInstance(this).delete(currentProductUri, null, null,
+                new ProductWriter.Callback<Integer>() {
+                    @Override
+                    public void onWritten(Integer deleteCount) {
+                        if (deleteCount == 0) {
+                            Toast.makeText(appContext, R.string.error_delete, Toast.LENGTH_SHORT).show();
+                        } else {
+                            Toast.makeText(appContext, R.string.product_deleted, Toast.LENGTH_SHORT).show();
+                        }
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Toast.makeText(appContext, R.string.error_delete, Toast.LENGTH_SHORT).show();
+                    }
+                });
         finish();
     }
 
@@ -526,11 +809,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         super.onActivityResult(requestCode, resultCode, resultData);
 
         if (requestCode == PICK_IMAGE_REQUEST && resultCode == Activity.RESULT_OK) {
-            if (resultData != null) {
-                Uri mUri = resultData.getData();
-                Bitmap image = getBitmapFromUri(mUri);
-                mImageAdded = true;
-                mProductImageView.setImageBitmap(image);
+            if (resultData != null && resultData.getData() != null) {
+                importImage(resultData.getData());
             }
         }
     }
@@ -549,53 +829,160 @@ public class EditorActivity extends AppCompatActivity implements LoaderCallbacks
         startActivityForResult(Intent.createChooser(intent, "Select Picture"), PICK_IMAGE_REQUEST);
     }
 
-    private Bitmap getBitmapFromUri(Uri uri) {
-
-        if (uri == null || uri.toString().isEmpty())
-            return null;
-
-        // Get the dimensions of the View
-        int targetW = mProductImageView.getWidth();
-        int targetH = mProductImageView.getHeight();
+    /**
+     * Show the stored image of the product. It is streamed from the provider instead of being
+     * copied through the cursor, and its rotation is read and the image decoded in the background,
+     * unless it is still cached. The form doesn't wait for it.
+     */
+    private void loadStoredImage() {
+        if (mStoredImageId == -1) {
+            return;
+        }
+        Uri imageUri = ContentUris.withAppendedId(ImageEntry.CONTENT_URI, mStoredImageId);
+        ImageLoader.getInstance(this).load(
+                ImageLoader.getKey("image:" + mStoredImageId, mImageWidth, mImageHeight),
+                ImageLoader.fromImage(getContentResolver(), imageUri), mProductImageView,
+                mImageWidth, mImageHeight, R.drawable.ic_empty_image, new ImageLoader.Listener() {
+                    @Override
+                    public void onImageLoaded(ImageView view, Bitmap bitmap) {
+                        mImageAdded = true;
+                    }
+                });
+    }
 
-        InputStream input = null;
-        try {
-            input = this.getContentResolver().openInputStream(uri);
+    /**
+     * Replace the image of the product with the picked one. The placeholder is shown while it is
+     * imported in the background, an import which didn't finish yet is cancelled.
+     */
+    private void importImage(Uri imageUri) {
+        if (mImportTask != null) {
+            mImportTask.cancel(false);
+        }
+        mProductHasChanged = true;
+        mImageChanged = true;
+        mImageAdded = false;
+        mImageBytes = null;
+        mThumbnailBytes = null;
+        // Stop showing or loading the stored image, so the loader can reuse its memory
+        ImageLoader.getInstance(this).clear(mProductImageView, R.drawable.ic_empty_image);
+        mImportTask = new ImportImageTask(imageUri, mImageWidth, mImageHeight);
+        // Not on the serial executor, where it would wait for the writes of other screens
+        mImportTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
 
-            // Get the dimensions of the bitmap
-            BitmapFactory.Options bmOptions = new BitmapFactory.Options();
-            bmOptions.inJustDecodeBounds = true;
-            BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
+    /**
+     * Looks up the stored names similar to the name typed into a field, and shows the most similar
+     * one as the error of the field. The product can still be saved with the typed name.
+     */
+    private static class SimilarNameTask extends AsyncTask<Void, Void, String[]> {
+
+        private final ContentResolver mContentResolver;
+        private final AutoCompleteTextView mField;
+        private final String mColumn;
+        private final String mName;
+
+        SimilarNameTask(ContentResolver contentResolver, AutoCompleteTextView field, String column,
+                        String name) {
+            mContentResolver = contentResolver;
+            mField = field;
+            mColumn = column;
+            mName = name;
+        }
 
-            int photoW = bmOptions.outWidth;
-            int photoH = bmOptions.outHeight;
+        @Override
+        protected String[] doInBackground(Void... params) {
+            return NameSuggestionAdapter.findSimilar(mContentResolver, mColumn, mName);
+        }
 
-            // Determine how much to scale down the image
-            int scaleFactor = Math.min(photoW / targetW, photoH / targetH);
+        @Override
+        protected void onPostExecute(String[] similarNames) {
+            // Only if the name wasn't changed meanwhile
+            if (similarNames.length > 0 && mField.getText().toString().trim().equals(mName)) {
+                mField.setError(mField.getContext().getString(R.string.error_similar_name, similarNames[0]));
+            }
+        }
+    }
 
-            // Decode the image file into a Bitmap sized to fill the View
-            bmOptions.inJustDecodeBounds = false;
-            bmOptions.inSampleSize = scaleFactor;
-            bmOptions.inPurgeable = true;
+    /**
+     * Decodes a picked image once at the size it is stored at, encodes it and its thumbnail for
+     * storage, and scales it down to the size it is shown at. The stored pixels keep the
+     * orientation of the picked file, only the bitmap to show is rotated. Only that bitmap reaches
+     * the main thread.
+     */
+    private class ImportImageTask extends AsyncTask<Void, Void, Bitmap> {
+
+        private final Uri mImageUri;
+        private final int mWidth;
+        private final int mHeight;
+        private byte[] mImage;
+        private byte[] mThumbnail;
+        private int mRotation;
+
+        /**
+         * @param imageUri URI of the picked image
+         * @param width    Width the image is shown at in pixels
+         * @param height   Height the image is shown at in pixels
+         */
+        ImportImageTask(Uri imageUri, int width, int height) {
+            mImageUri = imageUri;
+            mWidth = width;
+            mHeight = height;
+        }
 
-            input = this.getContentResolver().openInputStream(uri);
-            Bitmap bitmap = BitmapFactory.decodeStream(input, null, bmOptions);
-            input.close();
-            return bitmap;
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            int maxDimension = ImageEncoder.DEFAULT_MAX_DIMENSION;
+            Bitmap bitmap = ImageUtils.decodeSampled(getContentResolver(), mImageUri,
+                    maxDimension, maxDimension, false);
+            if (bitmap == null) {
+                return null;
+            }
+            mRotation = ImageUtils.getRotation(getContentResolver(), mImageUri);
 
-        } catch (FileNotFoundException fne) {
-            Log.e(LOG_TAG, "Failed to load image.", fne);
-            return null;
-        } catch (Exception e) {
-            Log.e(LOG_TAG, "Failed to load image.", e);
-            return null;
-        } finally {
+            Bitmap shown = null;
             try {
-                input.close();
-            } catch (IOException ioe) {
+                if (isCancelled()) {
+                    return null;
+                }
+                mImage = ImageUtils.getBytes(bitmap);
+                if (isCancelled()) {
+                    return null;
+                }
+                mThumbnail = ImageEncoder.getThumbnailEncoder().encode(bitmap);
+
+                float scale = ImageUtils.getScale(bitmap.getWidth(), bitmap.getHeight(), mRotation,
+                        mWidth, mHeight, false);
+                shown = ImageUtils.transform(bitmap, bitmap.getWidth(), bitmap.getHeight(), scale, mRotation);
+                return shown;
+            } finally {
+                if (shown != bitmap) {
+                    bitmap.recycle();
+                }
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap shown) {
+            mImportTask = null;
+            if (shown == null) {
+                Toast.makeText(EditorActivity.this, R.string.error_import_image, Toast.LENGTH_SHORT).show();
+                // Back to the stored image, if there is one
+                mImageChanged = false;
+                loadStoredImage();
+                return;
+            }
+            mImageBytes = mImage;
+            mThumbnailBytes = mThumbnail;
+            mImageRotation = mRotation;
+            mImageAdded = true;
+            mProductImageView.setImageBitmap(shown);
+        }
 
+        @Override
+        protected void onCancelled(Bitmap shown) {
+            if (shown != null) {
+                shown.recycle();
             }
         }
     }
-}
\ No newline at end of file
+}
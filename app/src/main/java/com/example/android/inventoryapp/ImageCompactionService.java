@@ -0,0 +1,137 @@
+package com.example.android.inventoryapp;
+
+import android.app.IntentService;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ImageEntry;
+
+import java.util.ArrayList;
+
+/**
+ * Re-encodes the stored images which {@link ImageEncoder#getDefault()} would write smaller, like
+ * the lossless PNGs of older versions, and gives the freed space back to the file system. It also
+ * makes the thumbnails of images stored without one. Images are rewritten a few at a time,
+ * so the app keeps working with the database meanwhile.
+ */
+public class ImageCompactionService extends IntentService {
+
+    private static final String LOG_TAG = ImageCompactionService.class.getSimpleName();
+
+    /**
+     * The database file is only rebuilt if at least this many bytes were freed.
+     */
+    private static final long MIN_BYTES_TO_VACUUM = 1024 * 1024;
+    /**
+     * Number of images written per transaction. Each transaction notifies a change of all
+     * products, so new thumbnails show up in the catalog while the service runs.
+     */
+    private static final int BATCH_SIZE = 10;
+
+    public ImageCompactionService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Start compacting the images in the background.
+     */
+    public static void start(Context context) {
+        context.startService(new Intent(context, ImageCompactionService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        ContentResolver contentResolver = getContentResolver();
+        ImageEncoder encoder = ImageEncoder.getDefault();
+        ImageEncoder thumbnailEncoder = ImageEncoder.getThumbnailEncoder();
+
+        String[] projection = {
+                ImageEntry._ID,
+                ImageEntry.COLUMN_IMAGE_SIZE,
+                ImageEntry.COLUMN_IMAGE_MIME_TYPE,
+                ImageEntry.COLUMN_IMAGE_THUMBNAIL_SIZE
+        };
+        Cursor cursor = contentResolver.query(ImageEntry.CONTENT_URI, projection, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        int imageCount = 0;
+        long freedBytes = 0;
+        try {
+            while (cursor.moveToNext()) {
+                long size = cursor.getLong(1);
+                boolean reencode = encoder.shouldReencode(cursor.getString(2), size);
+                boolean needsThumbnail = cursor.isNull(3);
+                if (!reencode && !needsThumbnail) {
+                    continue;
+                }
+
+                Uri imageUri = ContentUris.withAppendedId(ImageEntry.CONTENT_URI, cursor.getLong(0));
+                int maxDimension = encoder.getMaxDimension();
+                Bitmap bitmap = ImageUtils.decodeSampled(contentResolver, imageUri, maxDimension, maxDimension, false);
+                if (bitmap == null) {
+                    continue;
+                }
+                ContentValues values = new ContentValues();
+                try {
+                    if (reencode) {
+                        byte[] imageBytes = encoder.encode(bitmap);
+                        if (imageBytes.length < size) {
+                            values.put(ImageEntry.COLUMN_IMAGE_DATA, imageBytes);
+                            freedBytes += size - imageBytes.length;
+                        }
+                    }
+                    if (needsThumbnail) {
+                        values.put(ImageEntry.COLUMN_IMAGE_THUMBNAIL, thumbnailEncoder.encode(bitmap));
+                    }
+                } finally {
+                    bitmap.recycle();
+                }
+
+                if (values.size() > 0) {
+                    operations.add(ContentProviderOperation.newUpdate(imageUri).withValues(values).build());
+                    imageCount++;
+                }
+                if (operations.size() == BATCH_SIZE) {
+                    applyBatch(contentResolver, operations);
+                }
+            }
+            applyBatch(contentResolver, operations);
+        } finally {
+            cursor.close();
+        }
+
+        if (freedBytes >= MIN_BYTES_TO_VACUUM) {
+            contentResolver.call(ImageEntry.CONTENT_URI, ProductContract.METHOD_VACUUM, null, null);
+        }
+        Log.i(LOG_TAG, "Rewrote " + imageCount + " images, freed " + freedBytes + " bytes");
+    }
+
+    /**
+     * Write the collected operations in one transaction and clear them.
+     */
+    private static void applyBatch(ContentResolver contentResolver, ArrayList<ContentProviderOperation> operations) {
+        if (operations.isEmpty()) {
+            return;
+        }
+        try {
+            contentResolver.applyBatch(ProductContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Failed to write images", e);
+        }
+        operations.clear();
+    }
+}
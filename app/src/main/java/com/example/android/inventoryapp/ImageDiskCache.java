@@ -0,0 +1,187 @@
+package com.example.android.inventoryapp;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Keeps the pixels of decoded images in files, so showing them again costs a read instead of a
+ * decode. The least recently used files are deleted when the cache grows over its size.
+ * All methods may block on disk I/O and must not be called on the main thread.
+ */
+class ImageDiskCache {
+
+    private static final String LOG_TAG = ImageDiskCache.class.getSimpleName();
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    /**
+     * Total size of the cache files, -1 until it was computed
+     */
+    private long mSize = -1;
+    private int mEvictionCount;
+
+    ImageDiskCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Return the cached image with the given key, decoded into a reusable bitmap of the loader if
+     * there is one that fits, or null if the image is not cached.
+     */
+    synchronized Bitmap get(String key, ImageLoader loader) {
+        File file = getFile(key);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (!key.equals(input.readUTF())) {
+                // Another key with the same hash
+                return null;
+            }
+            int width = input.readInt();
+            int height = input.readInt();
+            byte[] pixels = new byte[width * height * 4];
+            input.readFully(pixels);
+
+            Bitmap bitmap = loader.takeReusableBitmap(width, height, 1);
+            if (bitmap != null && (bitmap.getWidth() != width || bitmap.getHeight() != height)) {
+                // Only bitmaps of the exact size are reusable before KitKat
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                    bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                } else {
+                    bitmap = null;
+                }
+            }
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            bitmap.copyPixelsFromBuffer(ByteBuffer.wrap(pixels));
+            file.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            Log.w(LOG_TAG, "Dropping unreadable cache file for " + key, e);
+            deleteFile(file);
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Store the pixels of the image with the given key.
+     */
+    synchronized void put(String key, Bitmap bitmap) {
+        if (bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            return;
+        }
+        if (mSize == -1) {
+            mSize = computeSize();
+        }
+
+        File file = getFile(key);
+        File temporaryFile = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream output = null;
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                return;
+            }
+            ByteBuffer pixels = ByteBuffer.allocate(bitmap.getByteCount());
+            bitmap.copyPixelsToBuffer(pixels);
+
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            output.writeUTF(key);
+            output.writeInt(bitmap.getWidth());
+            output.writeInt(bitmap.getHeight());
+            output.write(pixels.array());
+            output.close();
+            output = null;
+
+            deleteFile(file);
+            if (temporaryFile.renameTo(file)) {
+                mSize += file.length();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to cache " + key, e);
+        } finally {
+            closeQuietly(output);
+            temporaryFile.delete();
+        }
+        trimToSize();
+    }
+
+    synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Delete the least recently used files until the cache is back below its size.
+     */
+    private void trimToSize() {
+        if (mSize <= mMaxSize) {
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                long difference = first.lastModified() - second.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        // Leave some room, so not every following put has to trim again
+        for (int i = 0; i < files.length && mSize > mMaxSize * 3 / 4; i++) {
+            deleteFile(files[i]);
+            mEvictionCount++;
+        }
+    }
+
+    private long computeSize() {
+        long size = 0;
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private void deleteFile(File file) {
+        long length = file.length();
+        if (file.delete() && mSize != -1) {
+            mSize -= length;
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(mDirectory, Integer.toHexString(key.hashCode()));
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
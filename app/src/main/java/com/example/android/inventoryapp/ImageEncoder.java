@@ -0,0 +1,157 @@
+package com.example.android.inventoryapp;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.example.android.inventoryapp.data.ProductContract.ImageEntry;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Encodes product images for storage. An image is scaled down to fit a maximum dimension and
+ * compressed with the configured format and quality. If the result is still larger than the byte
+ * budget, the quality is lowered step by step, and then the dimensions are halved, until it fits.
+ * <p>
+ * Encoding takes long enough to drop frames, so it should not run on the main thread.
+ */
+public class ImageEncoder {
+
+    /**
+     * Settings of {@link #getDefault()}
+     */
+    public static final int DEFAULT_QUALITY = 80;
+    public static final int DEFAULT_MAX_DIMENSION = 1024;
+    public static final int DEFAULT_MAX_BYTES = 150 * 1024;
+    /**
+     * Settings of {@link #getThumbnailEncoder()}, large enough for a list row on any screen density
+     */
+    public static final int THUMBNAIL_QUALITY = 70;
+    public static final int THUMBNAIL_MAX_DIMENSION = 192;
+    public static final int THUMBNAIL_MAX_BYTES = 16 * 1024;
+
+    /**
+     * The quality is not lowered below this to meet the byte budget, the dimensions are halved instead.
+     */
+    private static final int MIN_QUALITY = 50;
+    private static final int QUALITY_STEP = 10;
+    /**
+     * Images are never scaled below this to meet the byte budget.
+     */
+    private static final int MIN_DIMENSION = 64;
+
+    private final Bitmap.CompressFormat mFormat;
+    private final int mQuality;
+    private final int mMaxDimension;
+    private final int mMaxBytes;
+
+    /**
+     * @param format       Format the images are compressed with
+     * @param quality      Compression quality from 0 to 100, ignored by lossless formats
+     * @param maxDimension Maximum width and height of an encoded image in pixels
+     * @param maxBytes     Size an encoded image should not exceed
+     */
+    public ImageEncoder(Bitmap.CompressFormat format, int quality, int maxDimension, int maxBytes) {
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("Invalid quality " + quality);
+        }
+        if (maxDimension <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid size limits " + maxDimension + ", " + maxBytes);
+        }
+        mFormat = format;
+        mQuality = quality;
+        mMaxDimension = maxDimension;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Return the encoder the app stores its images with: WebP where every supported device can
+     * decode it with transparency, JPEG before that.
+     */
+    public static ImageEncoder getDefault() {
+        return new ImageEncoder(getDefaultFormat(), DEFAULT_QUALITY, DEFAULT_MAX_DIMENSION, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Return the encoder the app stores the thumbnails of its images with.
+     */
+    public static ImageEncoder getThumbnailEncoder() {
+        return new ImageEncoder(getDefaultFormat(), THUMBNAIL_QUALITY, THUMBNAIL_MAX_DIMENSION, THUMBNAIL_MAX_BYTES);
+    }
+
+    private static Bitmap.CompressFormat getDefaultFormat() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+                ? Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG;
+    }
+
+    public int getMaxDimension() {
+        return mMaxDimension;
+    }
+
+    /**
+     * Return the MIME type of the images this encoder writes, see {@link ImageEntry#COLUMN_IMAGE_MIME_TYPE}.
+     */
+    public String getMimeType() {
+        switch (mFormat) {
+            case PNG:
+                return ImageEntry.MIME_TYPE_PNG;
+            case JPEG:
+                return ImageEntry.MIME_TYPE_JPEG;
+            default:
+                return ImageEntry.MIME_TYPE_WEBP;
+        }
+    }
+
+    /**
+     * Return whether a stored image of the given MIME type and size would be written differently
+     * by this encoder, so re-encoding it can make it smaller.
+     */
+    public boolean shouldReencode(String mimeType, long size) {
+        return !getMimeType().equals(mimeType) || size > mMaxBytes;
+    }
+
+    /**
+     * Encode the bitmap within the size limits of this encoder.
+     */
+    public byte[] encode(Bitmap bitmap) {
+        int maxDimension = mMaxDimension;
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        while (true) {
+            Bitmap scaled = scaleToFit(bitmap, maxDimension);
+            try {
+                for (int quality = mQuality; ; quality -= QUALITY_STEP) {
+                    stream.reset();
+                    scaled.compress(mFormat, quality, stream);
+                    if (stream.size() <= mMaxBytes || quality - QUALITY_STEP < MIN_QUALITY) {
+                        break;
+                    }
+                }
+            } finally {
+                if (scaled != bitmap) {
+                    scaled.recycle();
+                }
+            }
+            int nextDimension = Math.min(maxDimension, Math.max(bitmap.getWidth(), bitmap.getHeight())) / 2;
+            if (stream.size() <= mMaxBytes || nextDimension < MIN_DIMENSION) {
+                return stream.toByteArray();
+            }
+            maxDimension = nextDimension;
+        }
+    }
+
+    /**
+     * Return the bitmap scaled down so neither side is longer than maxDimension,
+     * or the bitmap itself if it already fits.
+     */
+    private static Bitmap scaleToFit(Bitmap bitmap, int maxDimension) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width <= maxDimension && height <= maxDimension) {
+            return bitmap;
+        }
+        float scale = (float) maxDimension / Math.max(width, height);
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)),
+                true);
+    }
+}
@@ -0,0 +1,512 @@
+package com.example.android.inventoryapp;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
+import android.util.Log;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import com.example.android.inventoryapp.data.ProductContract.ImageEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads product images into image views in the background, with two cache tiers: decoded bitmaps
+ * in memory, and their pixels on disk. Decodes reuse the memory of bitmaps that left the memory
+ * cache and are not shown anymore, so scrolling doesn't churn the heap.
+ * <p>
+ * Images are identified by a key, which must change whenever the image changes. The image id of a
+ * product is a good key: the provider moves the products to a new id when their image bytes are
+ * replaced, and never changes the bytes of an id. Images are decoded at the size they are shown
+ * at, so the same image is cached separately for each target size.
+ * <p>
+ * All methods except the stats must be called on the main thread.
+ */
+public class ImageLoader {
+
+    private static final String LOG_TAG = ImageLoader.class.getSimpleName();
+
+    /**
+     * The memory cache may use this fraction of the heap.
+     */
+    private static final int MEMORY_CACHE_DIVIDER = 8;
+    private static final long DISK_CACHE_SIZE = 16 * 1024 * 1024;
+    private static final String DISK_CACHE_DIRECTORY = "images";
+
+    /**
+     * Decodes an image. Called on a background thread, first with
+     * {@link BitmapFactory.Options#inJustDecodeBounds} set, then to decode the pixels.
+     */
+    public interface Source {
+        Bitmap decode(BitmapFactory.Options options) throws IOException;
+
+        /**
+         * Return the clockwise rotation in degrees the image is shown with. It is applied together
+         * with the scaling to the target size. Called on a background thread.
+         */
+        int getRotation();
+    }
+
+    /**
+     * Notified on the main thread when an image was loaded into its view.
+     */
+    public interface Listener {
+        void onImageLoaded(ImageView view, Bitmap bitmap);
+    }
+
+    private static ImageLoader sInstance;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final ImageDiskCache mDiskCache;
+    /**
+     * How many views show each bitmap of this loader
+     */
+    private final WeakHashMap<Bitmap, Integer> mDisplayCounts = new WeakHashMap<>();
+    /**
+     * Bitmaps which left the memory cache while they were shown, they can be reused once they are not
+     */
+    private final Set<Bitmap> mEvictedBitmaps = Collections.newSetFromMap(new WeakHashMap<Bitmap, Boolean>());
+    /**
+     * Bitmaps whose memory can be decoded into, shared with the background threads
+     */
+    private final LinkedList<SoftReference<Bitmap>> mReusableBitmaps = new LinkedList<>();
+
+    private final AtomicInteger mMemoryHits = new AtomicInteger();
+    private final AtomicInteger mDiskHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicInteger mReuses = new AtomicInteger();
+
+    private ImageLoader(Context context) {
+        int cacheSize = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_DIVIDER);
+        mMemoryCache = new LruCache<String, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                onRemovedFromMemory(oldValue);
+            }
+        };
+        mDiskCache = new ImageDiskCache(new File(context.getCacheDir(), DISK_CACHE_DIRECTORY), DISK_CACHE_SIZE);
+
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_MODERATE) {
+                    mMemoryCache.evictAll();
+                } else if (level >= TRIM_MEMORY_BACKGROUND) {
+                    mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                mMemoryCache.evictAll();
+            }
+        });
+    }
+
+    /**
+     * Return the loader shared by the whole app, so images stay cached between activities.
+     */
+    public static ImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Return a source decoding the given encoded image bytes, shown with the given rotation.
+     */
+    public static Source fromBytes(final byte[] bytes, final int rotation) {
+        return new Source() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+            }
+
+            @Override
+            public int getRotation() {
+                return rotation;
+            }
+        };
+    }
+
+    /**
+     * Return a source decoding the image streamed from the given content URI, shown with the
+     * given rotation.
+     */
+    public static Source fromUri(final ContentResolver contentResolver, final Uri uri, final int rotation) {
+        return new Source() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) throws IOException {
+                InputStream input = contentResolver.openInputStream(uri);
+                try {
+                    return BitmapFactory.decodeStream(input, null, options);
+                } finally {
+                    input.close();
+                }
+            }
+
+            @Override
+            public int getRotation() {
+                return rotation;
+            }
+        };
+    }
+
+    /**
+     * Return a source decoding the stored image with the given URI of {@link ImageEntry#CONTENT_URI}.
+     * Its rotation is queried in the background together with the decoding, so the caller only
+     * needs the URI.
+     */
+    public static Source fromImage(final ContentResolver contentResolver, final Uri imageUri) {
+        final Source stream = fromUri(contentResolver, imageUri, 0);
+        return new Source() {
+            private int mRotation = -1;
+
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) throws IOException {
+                return stream.decode(options);
+            }
+
+            @Override
+            public int getRotation() {
+                if (mRotation == -1) {
+                    mRotation = 0;
+                    Cursor cursor = contentResolver.query(imageUri,
+                            new String[]{ImageEntry.COLUMN_IMAGE_ROTATION}, null, null, null);
+                    if (cursor != null) {
+                        try {
+                            if (cursor.moveToFirst()) {
+                                mRotation = cursor.getInt(0);
+                            }
+                        } finally {
+                            cursor.close();
+                        }
+                    }
+                }
+                return mRotation;
+            }
+        };
+    }
+
+    /**
+     * Return the key the image with the given key is cached under at the given size. Lists build
+     * the keys of their rows once, instead of every time a row is bound.
+     */
+    public static String getKey(String imageKey, int width, int height) {
+        return imageKey + "@" + width + "x" + height;
+    }
+
+    /**
+     * Show the image with the given key in the view: right away if it is in memory, otherwise
+     * the placeholder until the image is loaded from disk or decoded from the source.
+     * The image is decoded to cover the target size if the view crops it, otherwise to fit into it.
+     *
+     * @param key      Key of the image at the given size, see {@link #getKey}
+     * @param width    Width the image is shown at in pixels
+     * @param height   Height the image is shown at in pixels
+     * @param listener Notified when the image is shown, may be null
+     */
+    public void load(String key, Source source, ImageView view, int width, int height,
+                     int placeholderResId, Listener listener) {
+        LoadTask pending = (LoadTask) view.getTag(R.id.image_loader_task);
+        if (pending != null && pending.mKey.equals(key)) {
+            // Already on its way
+            return;
+        }
+
+        Bitmap cached = mMemoryCache.get(key);
+        if (cached != null) {
+            mMemoryHits.incrementAndGet();
+            cancel(view);
+            show(view, cached, listener);
+            return;
+        }
+
+        clear(view, placeholderResId);
+        boolean fill = view.getScaleType() == ImageView.ScaleType.CENTER_CROP;
+        LoadTask task = new LoadTask(key, source, width, height, fill, view, listener);
+        view.setTag(R.id.image_loader_task, task);
+        task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Show the placeholder in the view, and stop showing or loading any image for it.
+     */
+    public void clear(ImageView view, int placeholderResId) {
+        cancel(view);
+        release(view);
+        view.setImageResource(placeholderResId);
+    }
+
+    private static void cancel(ImageView view) {
+        LoadTask pending = (LoadTask) view.getTag(R.id.image_loader_task);
+        if (pending != null) {
+            pending.cancel(false);
+            view.setTag(R.id.image_loader_task, null);
+        }
+    }
+
+    private void show(ImageView view, Bitmap bitmap, Listener listener) {
+        release(view);
+        view.setImageBitmap(bitmap);
+        view.setTag(R.id.image_loader_bitmap, bitmap);
+        Integer count = mDisplayCounts.get(bitmap);
+        mDisplayCounts.put(bitmap, count == null ? 1 : count + 1);
+        if (listener != null) {
+            listener.onImageLoaded(view, bitmap);
+        }
+    }
+
+    /**
+     * Forget the bitmap shown in the view. Once no view shows an evicted bitmap, it can be reused.
+     */
+    private void release(ImageView view) {
+        Bitmap bitmap = (Bitmap) view.getTag(R.id.image_loader_bitmap);
+        if (bitmap == null) {
+            return;
+        }
+        view.setTag(R.id.image_loader_bitmap, null);
+        Integer count = mDisplayCounts.get(bitmap);
+        if (count != null && count > 1) {
+            mDisplayCounts.put(bitmap, count - 1);
+            return;
+        }
+        mDisplayCounts.remove(bitmap);
+        if (mEvictedBitmaps.remove(bitmap)) {
+            addReusableBitmap(bitmap);
+        }
+    }
+
+    private void onRemovedFromMemory(Bitmap bitmap) {
+        if (mDisplayCounts.containsKey(bitmap)) {
+            mEvictedBitmaps.add(bitmap);
+        } else {
+            addReusableBitmap(bitmap);
+        }
+    }
+
+    private void addReusableBitmap(Bitmap bitmap) {
+        if (!bitmap.isMutable()) {
+            return;
+        }
+        synchronized (mReusableBitmaps) {
+            mReusableBitmaps.add(new SoftReference<>(bitmap));
+        }
+    }
+
+    /**
+     * Take a reusable bitmap that can hold an image of the given size decoded with the given sample
+     * size, or return null if there is none.
+     */
+    Bitmap takeReusableBitmap(int width, int height, int sampleSize) {
+        synchronized (mReusableBitmaps) {
+            Iterator<SoftReference<Bitmap>> iterator = mReusableBitmaps.iterator();
+            while (iterator.hasNext()) {
+                Bitmap candidate = iterator.next().get();
+                if (candidate == null || candidate.isRecycled()) {
+                    iterator.remove();
+                } else if (canReuse(candidate, width, height, sampleSize)) {
+                    iterator.remove();
+                    mReuses.incrementAndGet();
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean canReuse(Bitmap candidate, int width, int height, int sampleSize) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Any bitmap with enough memory, the decoder reconfigures it
+            long byteCount = (long) ceilDivide(width, sampleSize) * ceilDivide(height, sampleSize) * 4;
+            return candidate.getConfig() == Bitmap.Config.ARGB_8888
+                    && byteCount <= candidate.getAllocationByteCount();
+        }
+        // Before KitKat only bitmaps of the same size can be decoded into, without sampling
+        return candidate.getWidth() == width && candidate.getHeight() == height && sampleSize == 1;
+    }
+
+    private static int ceilDivide(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Decode the image from its source at the target size, see {@link ImageUtils#getScale}.
+     * The image is subsampled while decoding, into a reusable bitmap if there is one that fits,
+     * and then scaled to the exact size and rotated in one step. Return null if the image can't
+     * be decoded.
+     */
+    private Bitmap decode(Source source, int width, int height, boolean fill) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        source.decode(options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        int rotation = source.getRotation();
+        float scale = ImageUtils.getScale(options.outWidth, options.outHeight, rotation, width, height, fill);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = ImageUtils.getSampleSize(scale);
+        options.inMutable = true;
+        options.inBitmap = takeReusableBitmap(options.outWidth, options.outHeight, options.inSampleSize);
+        Bitmap sampled = null;
+        if (options.inBitmap != null) {
+            try {
+                sampled = source.decode(options);
+            } catch (IllegalArgumentException e) {
+                // The image can't be decoded into this bitmap after all
+                options.inBitmap = null;
+            }
+        }
+        if (sampled == null) {
+            sampled = source.decode(options);
+        }
+        if (sampled == null) {
+            return null;
+        }
+
+        Bitmap scaled = ImageUtils.transform(sampled, options.outWidth, options.outHeight, scale, rotation);
+        if (scaled != sampled) {
+            // The intermediate bitmap is never shown, the next decode can use its memory
+            addReusableBitmap(sampled);
+        }
+        return scaled;
+    }
+
+    /**
+     * Write the hit counts of the cache tiers and the reuse count to the log.
+     */
+    public void logStats() {
+        int memoryHits = mMemoryHits.get();
+        int diskHits = mDiskHits.get();
+        int misses = mMisses.get();
+        int requests = Math.max(1, memoryHits + diskHits + misses);
+        Log.d(LOG_TAG, "memory hits " + memoryHits + " (" + 100 * memoryHits / requests + "%), "
+                + "disk hits " + diskHits + " (" + 100 * diskHits / requests + "%), "
+                + "decodes " + misses + ", "
+                + "memory evictions " + mMemoryCache.evictionCount() + ", "
+                + "disk evictions " + mDiskCache.getEvictionCount() + ", "
+                + "reused bitmaps " + mReuses.get());
+    }
+
+    public int getMemoryHitCount() {
+        return mMemoryHits.get();
+    }
+
+    public int getDiskHitCount() {
+        return mDiskHits.get();
+    }
+
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    public int getMemoryEvictionCount() {
+        return mMemoryCache.evictionCount();
+    }
+
+    public int getDiskEvictionCount() {
+        return mDiskCache.getEvictionCount();
+    }
+
+    public int getReuseCount() {
+        return mReuses.get();
+    }
+
+    /**
+     * Loads a single image from the disk cache or its source, and shows it if its view still
+     * wants it by then.
+     */
+    private class LoadTask extends AsyncTask<Void, Void, Bitmap> {
+
+        private final String mKey;
+        private final Source mSource;
+        private final int mWidth;
+        private final int mHeight;
+        private final boolean mFill;
+        private final ImageView mView;
+        private final Listener mListener;
+
+        LoadTask(String key, Source source, int width, int height, boolean fill, ImageView view,
+                 Listener listener) {
+            mKey = key;
+            mSource = source;
+            mWidth = width;
+            mHeight = height;
+            mFill = fill;
+            mView = view;
+            mListener = listener;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            if (isCancelled()) {
+                // The view was bound to another image meanwhile
+                return null;
+            }
+            Bitmap bitmap = mDiskCache.get(mKey, ImageLoader.this);
+            if (bitmap != null) {
+                mDiskHits.incrementAndGet();
+                return bitmap;
+            }
+            try {
+                bitmap = decode(mSource, mWidth, mHeight, mFill);
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Failed to load image " + mKey, e);
+                return null;
+            }
+            mMisses.incrementAndGet();
+            if (bitmap != null && bitmap.getByteCount() <= DISK_CACHE_SIZE / 16) {
+                mDiskCache.put(mKey, bitmap);
+            }
+            return bitmap;
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            if (mView.getTag(R.id.image_loader_task) == this) {
+                mView.setTag(R.id.image_loader_task, null);
+            }
+            if (bitmap == null) {
+                return;
+            }
+            mMemoryCache.put(mKey, bitmap);
+            show(mView, bitmap, mListener);
+        }
+
+        @Override
+        protected void onCancelled(Bitmap bitmap) {
+            if (bitmap != null) {
+                // Still worth keeping for the next time the image is shown
+                mMemoryCache.put(mKey, bitmap);
+            }
+        }
+    }
+}
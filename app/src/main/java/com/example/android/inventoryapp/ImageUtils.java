@@ -1,18 +1,24 @@
 package com.example.android.inventoryapp;
 
+import android.content.ContentResolver;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
+import android.net.Uri;
+import android.support.media.ExifInterface;
+import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
 public class ImageUtils {
 
-    // convert from bitmap to byte array
+    private static final String LOG_TAG = ImageUtils.class.getSimpleName();
+
+    // convert from bitmap to byte array, encoded for storage by the default ImageEncoder.
+    // this is slow for photos, call it off the main thread
     public static byte[] getBytes(Bitmap bitmap) {
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 0, stream);
-        return stream.toByteArray();
+        return ImageEncoder.getDefault().encode(bitmap);
     }
 
     // convert from byte array to bitmap
@@ -20,10 +26,159 @@ public class ImageUtils {
         return BitmapFactory.decodeByteArray(image, 0, image.length);
     }
 
-    public static Bitmap RotateBitmap(Bitmap source, float angle)
-    {
+    // decode the image streamed from the given content uri at the size it is shown at, or return
+    // null if it can't be read. see getScale for how the size is picked.
+    public static Bitmap decodeSampled(ContentResolver contentResolver, Uri imageUri,
+                                       int reqWidth, int reqHeight, boolean fill) {
+        // a bounds pass first, so the pixels are only decoded once at the sampled size
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(contentResolver, imageUri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.w(LOG_TAG, "Cannot decode " + imageUri);
+            return null;
+        }
+
+        float scale = getScale(options.outWidth, options.outHeight, reqWidth, reqHeight, fill);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(scale);
+        Bitmap sampled = decodeStream(contentResolver, imageUri, options);
+        if (sampled == null) {
+            Log.w(LOG_TAG, "Cannot decode " + imageUri);
+            return null;
+        }
+        return scaleSampled(sampled, options.outWidth, options.outHeight, scale);
+    }
+
+    // decode the given encoded image at the size it is shown at, or return null if it can't be
+    // decoded. see getScale for how the size is picked.
+    public static Bitmap decodeSampled(byte[] image, int reqWidth, int reqHeight, boolean fill) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        float scale = getScale(options.outWidth, options.outHeight, reqWidth, reqHeight, fill);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(scale);
+        Bitmap sampled = BitmapFactory.decodeByteArray(image, 0, image.length, options);
+        if (sampled == null) {
+            return null;
+        }
+        return scaleSampled(sampled, options.outWidth, options.outHeight, scale);
+    }
+
+    // return the factor an image of the given size is scaled by to be shown in a reqWidth x reqHeight
+    // box: with fill it covers the box (like centerCrop), otherwise it fits into it (like fitCenter).
+    // images are never scaled up, so the factor is at most 1.
+    public static float getScale(int width, int height, int reqWidth, int reqHeight, boolean fill) {
+        float widthScale = (float) reqWidth / width;
+        float heightScale = (float) reqHeight / height;
+        float scale = fill ? Math.max(widthScale, heightScale) : Math.min(widthScale, heightScale);
+        return Math.min(1f, scale);
+    }
+
+    // return the largest power of two sample size which doesn't decode an image smaller than the
+    // given scale factor. the decoder rounds other sample sizes down to a power of two anyway.
+    public static int getSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1f) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // return the size of a side of the given length scaled by the given factor
+    public static int getScaledSize(int length, float scale) {
+        return Math.max(1, Math.round(length * scale));
+    }
+
+    // scale a bitmap decoded with getSampleSize(scale) from an image of the given size exactly to
+    // the scaled size. the sampled bitmap is recycled if a new one was made.
+    public static Bitmap scaleSampled(Bitmap sampled, int width, int height, float scale) {
+        Bitmap scaled = transform(sampled, width, height, scale, 0);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+
+    // scale a bitmap decoded with getSampleSize(scale) from an image of the given size exactly to
+    // the scaled size, and rotate it clockwise by the given degrees, in a single copy. return the
+    // bitmap itself if it needs neither.
+    public static Bitmap transform(Bitmap sampled, int width, int height, float scale, int rotation) {
+        int scaledWidth = getScaledSize(width, scale);
+        int scaledHeight = getScaledSize(height, scale);
+        if (rotation == 0 && sampled.getWidth() == scaledWidth && sampled.getHeight() == scaledHeight) {
+            return sampled;
+        }
         Matrix matrix = new Matrix();
-        matrix.postRotate(angle);
-        return Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+        matrix.setScale((float) scaledWidth / sampled.getWidth(), (float) scaledHeight / sampled.getHeight());
+        matrix.postRotate(rotation);
+        return Bitmap.createBitmap(sampled, 0, 0, sampled.getWidth(), sampled.getHeight(), matrix, true);
+    }
+
+    // return the scale factor of an image of the given size shown with the given rotation, see
+    // getScale. the target box applies to the rotated image.
+    public static float getScale(int width, int height, int rotation, int reqWidth, int reqHeight, boolean fill) {
+        if (rotation % 180 != 0) {
+            return getScale(height, width, reqWidth, reqHeight, fill);
+        }
+        return getScale(width, height, reqWidth, reqHeight, fill);
+    }
+
+    // return the clockwise rotation in degrees the image at the given content uri should be shown
+    // with according to its exif orientation, 0 if it has none or it can't be read. mirrored
+    // orientations are shown unmirrored.
+    public static int getRotation(ContentResolver contentResolver, Uri imageUri) {
+        InputStream input = null;
+        try {
+            input = contentResolver.openInputStream(imageUri);
+            ExifInterface exif = new ExifInterface(input);
+            switch (exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL)) {
+                case ExifInterface.ORIENTATION_ROTATE_90:
+                case ExifInterface.ORIENTATION_TRANSPOSE:
+                    return 90;
+                case ExifInterface.ORIENTATION_ROTATE_180:
+                case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                    return 180;
+                case ExifInterface.ORIENTATION_ROTATE_270:
+                case ExifInterface.ORIENTATION_TRANSVERSE:
+                    return 270;
+                default:
+                    return 0;
+            }
+        } catch (IOException | SecurityException e) {
+            Log.w(LOG_TAG, "Failed to read the orientation of " + imageUri, e);
+            return 0;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private static Bitmap decodeStream(ContentResolver contentResolver, Uri imageUri,
+                                       BitmapFactory.Options options) {
+        InputStream input = null;
+        try {
+            input = contentResolver.openInputStream(imageUri);
+            return BitmapFactory.decodeStream(input, null, options);
+        } catch (IOException | SecurityException e) {
+            Log.e(LOG_TAG, "Failed to load image " + imageUri, e);
+            return null;
+        } finally {
+            if (input != null) {
+                try {
+                    input.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
     }
 }
@@ -0,0 +1,29 @@
+package com.example.android.inventoryapp;
+
+import android.app.Application;
+import android.os.StrictMode;
+
+/**
+ * Sets up the app process. Debug builds log any disk or network access on the main thread, all of
+ * it belongs in loaders, the {@link ProductWriter} or background tasks.
+ */
+public class InventoryApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        if (BuildConfig.DEBUG) {
+            StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                    .detectDiskReads()
+                    .detectDiskWrites()
+                    .detectNetwork()
+                    .penaltyLog()
+                    .build());
+            StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder()
+                    .detectLeakedSqlLiteObjects()
+                    .detectLeakedClosableObjects()
+                    .penaltyLog()
+                    .build());
+        }
+        super.onCreate();
+    }
+}
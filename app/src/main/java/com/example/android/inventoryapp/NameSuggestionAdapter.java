@@ -0,0 +1,103 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.ArrayList;
+
+/**
+ * Suggests the product names or the supplier names of the stored products for an
+ * {@link android.widget.AutoCompleteTextView}, while they are typed. The names come from the
+ * provider, see {@link ProductContract#METHOD_SUGGEST_NAMES}, on the background thread of the
+ * filter.
+ */
+class NameSuggestionAdapter extends ArrayAdapter<String> {
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private final ContentResolver mContentResolver;
+    private final String mColumn;
+
+    private final Filter mFilter = new Filter() {
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            String[] names = constraint == null
+                    ? NO_NAMES : suggest(mContentResolver, mColumn, constraint.toString());
+            FilterResults results = new FilterResults();
+            results.values = names;
+            results.count = names.length;
+            return results;
+        }
+
+        @Override
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            setNotifyOnChange(false);
+            clear();
+            // No values if the filtering failed
+            if (results.values != null) {
+                for (String name : (String[]) results.values) {
+                    add(name);
+                }
+            }
+            notifyDataSetChanged();
+        }
+    };
+
+    /**
+     * @param column {@link ProductEntry#COLUMN_PRODUCT_NAME} or
+     *               {@link ProductEntry#COLUMN_PRODUCT_SUPPLIER_NAME}
+     */
+    NameSuggestionAdapter(Context context, String column) {
+        super(context, android.R.layout.simple_dropdown_item_1line);
+        mContentResolver = context.getContentResolver();
+        mColumn = column;
+    }
+
+    @Override
+    public Filter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Return the names suggested for the typed text: the names which complete it, then the names
+     * which complete it once a typo is corrected. The text itself is left out, so a complete name
+     * is not suggested again. Call off the main thread.
+     */
+    static String[] suggest(ContentResolver contentResolver, String column, String text) {
+        Bundle result = call(contentResolver, ProductContract.METHOD_SUGGEST_NAMES, column, text);
+        ArrayList<String> names = new ArrayList<>();
+        addAllExcept(names, result.getStringArray(ProductContract.EXTRA_SUGGESTIONS), text);
+        addAllExcept(names, result.getStringArray(ProductContract.EXTRA_CORRECTIONS), text);
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Return the stored names similar to the complete name, the most similar first, see
+     * {@link ProductContract#METHOD_FIND_SIMILAR_NAMES}. Call off the main thread.
+     */
+    static String[] findSimilar(ContentResolver contentResolver, String column, String name) {
+        Bundle result = call(contentResolver, ProductContract.METHOD_FIND_SIMILAR_NAMES, column, name);
+        return result.getStringArray(ProductContract.EXTRA_SIMILAR_NAMES);
+    }
+
+    private static Bundle call(ContentResolver contentResolver, String method, String column, String text) {
+        Bundle extras = new Bundle();
+        extras.putString(ProductContract.EXTRA_SUGGEST_COLUMN, column);
+        return contentResolver.call(ProductEntry.CONTENT_URI, method, text, extras);
+    }
+
+    private static void addAllExcept(ArrayList<String> names, String[] newNames, String except) {
+        String trimmed = except.trim();
+        for (String name : newNames) {
+            if (!name.equals(trimmed)) {
+                names.add(name);
+            }
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.util.LongSparseArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+
+/**
+ * {@link ProductAdapter} shows the products of the catalog in a {@link RecyclerView}. The rows are
+ * read out of their cursors once, see {@link ProductRows}, so binding a row touches neither a
+ * cursor nor the allocator. New rows are compared with the shown ones on a background thread, and
+ * only the rows that changed are bound again.
+ */
+public class ProductAdapter extends RecyclerView.Adapter<ProductAdapter.ProductViewHolder> {
+
+    /**
+     * Notified when a product of the list is clicked.
+     */
+    public interface OnProductClickListener {
+        void onProductClick(long id);
+    }
+
+    /**
+     * The views of a single row, found once when the row is created.
+     */
+    static class ProductViewHolder extends RecyclerView.ViewHolder {
+
+        final TextView nameView;
+        final TextView quantityView;
+        final TextView priceView;
+        final Button sellButton;
+        final ImageView thumbnailView;
+        /**
+         * The numbers are formatted into these and shown without creating strings
+         */
+        final char[] quantityChars = new char[MAX_INT_CHARS];
+        final char[] priceChars = new char[MAX_INT_CHARS];
+        /**
+         * The image shown or loading in the thumbnail view, with its rotation
+         */
+        long imageId = ProductRows.NO_IMAGE;
+        int imageRotation;
+
+        ProductViewHolder(View itemView) {
+            super(itemView);
+            nameView = (TextView) itemView.findViewById(R.id.name);
+            quantityView = (TextView) itemView.findViewById(R.id.quantity);
+            priceView = (TextView) itemView.findViewById(R.id.price);
+            sellButton = (Button) itemView.findViewById(R.id.button_sale);
+            thumbnailView = (ImageView) itemView.findViewById(R.id.thumbnail);
+        }
+    }
+
+    /**
+     * Length of the longest formatted int, "-2147483648"
+     */
+    private static final int MAX_INT_CHARS = 11;
+
+    /**
+     * Rows that changed after their cursor was loaded, by product id. Their values are shown
+     * instead of the ones in the rows until fresh rows contain the product again.
+     */
+    private final LongSparseArray<ContentValues> mPatchedRows = new LongSparseArray<>();
+    /**
+     * Quantities that were stored after the row of their product was loaded or patched, by product id
+     */
+    private final LongSparseArray<Integer> mStoredQuantities = new LongSparseArray<>();
+    /**
+     * Writes the sales in the background
+     */
+    private final StockAdjustmentQueue mStockAdjustments;
+    /**
+     * Decodes the thumbnails in the background and keeps them cached
+     */
+    private final ImageLoader mImageLoader;
+    /**
+     * Reads the thumbnails which are not cached a page at a time
+     */
+    private final ThumbnailFetcher mThumbnailFetcher;
+    private final LayoutInflater mInflater;
+    /**
+     * Size of the thumbnail views in pixels, the thumbnails are decoded at this size
+     */
+    private final int mThumbnailSize;
+    private final OnProductClickListener mOnProductClickListener;
+    /**
+     * The rows shown in the list
+     */
+    private ProductRows mRows = ProductRows.EMPTY;
+    /**
+     * Compares the shown rows with newer ones, null if no rows are waiting to be shown
+     */
+    private DiffTask mDiffTask;
+
+    /**
+     * Handles the clicks of all rows and their sell buttons. The views are tagged with their holder.
+     */
+    private final View.OnClickListener mClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ProductViewHolder holder = (ProductViewHolder) view.getTag();
+            int position = holder.getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                // The row is being removed
+                return;
+            }
+            if (view == holder.sellButton) {
+                sell(holder, position);
+            } else {
+                mOnProductClickListener.onProductClick(mRows.ids[position]);
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link ProductAdapter} without rows.
+     *
+     * @param context          The context
+     * @param stockAdjustments The queue the sales are written with
+     * @param listener         Notified when a product is clicked
+     */
+    public ProductAdapter(Context context, StockAdjustmentQueue stockAdjustments,
+                          OnProductClickListener listener) {
+        mStockAdjustments = stockAdjustments;
+        mOnProductClickListener = listener;
+        mImageLoader = ImageLoader.getInstance(context);
+        mThumbnailFetcher = new ThumbnailFetcher(context.getContentResolver());
+        mInflater = LayoutInflater.from(context);
+        mThumbnailSize = context.getResources().getDimensionPixelSize(R.dimen.product_thumbnail_size);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Return the size of the thumbnails in pixels, which the rows build their thumbnail keys for.
+     */
+    int getThumbnailSize() {
+        return mThumbnailSize;
+    }
+
+    /**
+     * Return the rows shown in the list, without the patched values.
+     */
+    ProductRows getRows() {
+        return mRows;
+    }
+
+    /**
+     * Show the given rows. They are compared with the shown rows in the background, so only the
+     * rows which were added, removed or changed are updated. Rows submitted before, which are not
+     * shown yet, are dropped.
+     */
+    void submitRows(ProductRows rows) {
+        if (mDiffTask != null) {
+            mDiffTask.cancel(false);
+            mDiffTask = null;
+        }
+        if (mRows.count == 0 || rows.count == 0) {
+            // Nothing to compare
+            mRows = rows;
+            notifyDataSetChanged();
+            return;
+        }
+        mDiffTask = new DiffTask(mRows, rows);
+        mDiffTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Show the given values for the product instead of the ones in the rows.
+     */
+    public void patchRow(long id, ContentValues values) {
+        mPatchedRows.put(id, values);
+        mStoredQuantities.remove(id);
+        notifyProductChanged(id);
+    }
+
+    /**
+     * Show the given stored quantity for the product instead of the loaded one.
+     */
+    public void setStoredQuantity(long id, int quantity) {
+        mStoredQuantities.put(id, quantity);
+        notifyProductChanged(id);
+    }
+
+    /**
+     * Bind the row of the given product again, if it is in the list.
+     */
+    public void notifyProductChanged(long id) {
+        int position = mRows.indexOf(id);
+        if (position != -1) {
+            notifyItemChanged(position);
+        }
+    }
+
+    /**
+     * Forget the patched values of the products in the given rows, because they were loaded after them.
+     */
+    void clearPatchedRows(ProductRows rows) {
+        if (mPatchedRows.size() == 0 && mStoredQuantities.size() == 0) {
+            return;
+        }
+        for (int i = 0; i < rows.count; i++) {
+            mPatchedRows.remove(rows.ids[i]);
+            mStoredQuantities.remove(rows.ids[i]);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRows.count;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mRows.ids[position];
+    }
+
+    @Override
+    public ProductViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        ProductViewHolder holder = new ProductViewHolder(mInflater.inflate(R.layout.list_item, parent, false));
+        holder.itemView.setTag(holder);
+        holder.itemView.setOnClickListener(mClickListener);
+        holder.sellButton.setTag(holder);
+        holder.sellButton.setOnClickListener(mClickListener);
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(ProductViewHolder holder, int position) {
+        long id = mRows.ids[position];
+        String name = mRows.names[position];
+        int price = mRows.prices[position];
+        long imageId = mRows.imageIds[position];
+        int imageRotation = mRows.imageRotations[position];
+        String thumbnailKey = mRows.thumbnailKeys[position];
+
+        // Values that changed since the rows were loaded
+        ContentValues patch = mPatchedRows.get(id);
+        if (patch != null) {
+            name = patch.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
+            price = patch.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
+            Long patchedImageId = patch.getAsLong(ProductEntry.COLUMN_PRODUCT_IMAGE_ID);
+            imageId = patchedImageId == null ? ProductRows.NO_IMAGE : patchedImageId;
+            Integer patchedRotation = patch.getAsInteger(ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION);
+            imageRotation = patchedRotation == null ? 0 : patchedRotation;
+            if (imageId != mRows.imageIds[position]) {
+                thumbnailKey = ProductRows.getThumbnailKey(imageId, mThumbnailSize);
+            }
+        }
+
+        // Populate fields with extracted properties, including the sales that are not stored yet
+        holder.nameView.setText(name);
+        setNumber(holder.quantityView, holder.quantityChars,
+                getStoredQuantity(id, position) + mStockAdjustments.getUnsavedDelta(id));
+        setNumber(holder.priceView, holder.priceChars, price);
+
+        // Only the small thumbnail is decoded, never the full image. A row bound again with the
+        // same image keeps showing it, and allocates nothing.
+        if (imageId == ProductRows.NO_IMAGE) {
+            if (holder.imageId != ProductRows.NO_IMAGE) {
+                mImageLoader.clear(holder.thumbnailView, R.drawable.ic_empty_image);
+            }
+        } else if (imageId != holder.imageId || imageRotation != holder.imageRotation) {
+            ImageLoader.Source source = mThumbnailFetcher.newSource(imageId, imageRotation, mRows, position);
+            mImageLoader.load(thumbnailKey, source, holder.thumbnailView,
+                    mThumbnailSize, mThumbnailSize, R.drawable.ic_empty_image, null);
+        }
+        holder.imageId = imageId;
+        holder.imageRotation = imageRotation;
+    }
+
+    /**
+     * Return the stored quantity of the product at the given position, without the unsaved sales.
+     */
+    private int getStoredQuantity(long id, int position) {
+        int index = mStoredQuantities.indexOfKey(id);
+        if (index >= 0) {
+            return mStoredQuantities.valueAt(index);
+        }
+        ContentValues patch = mPatchedRows.get(id);
+        if (patch != null) {
+            return patch.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        }
+        return mRows.quantities[position];
+    }
+
+    /**
+     * Sell one item of the product in the given row.
+     */
+    private void sell(ProductViewHolder holder, int position) {
+        // The sale is shown right away and written together with the other sales of the next
+        // moment. The provider applies it as a delta, so fast taps or other writers can't
+        // overwrite each other with a stale quantity.
+        long id = mRows.ids[position];
+        int shownQuantity = getStoredQuantity(id, position) + mStockAdjustments.getUnsavedDelta(id);
+        if (shownQuantity <= 0) {
+            return;
+        }
+        mStockAdjustments.adjust(id, -1);
+        setNumber(holder.quantityView, holder.quantityChars, shownQuantity - 1);
+    }
+
+    /**
+     * Show the number in the text view, formatted into the given characters of the view.
+     */
+    private static void setNumber(TextView view, char[] chars, int number) {
+        // Written from the end, so the digits come out in order
+        long remaining = Math.abs((long) number);
+        int start = chars.length;
+        do {
+            chars[--start] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining > 0);
+        if (number < 0) {
+            chars[--start] = '-';
+        }
+        view.setText(chars, start, chars.length - start);
+    }
+
+    /**
+     * Compares the shown rows with new ones, and shows the new ones once it knows which rows changed.
+     */
+    private class DiffTask extends AsyncTask<Void, Void, DiffUtil.DiffResult> {
+
+        private final ProductRows mOldRows;
+        private final ProductRows mNewRows;
+
+        DiffTask(ProductRows oldRows, ProductRows newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        protected DiffUtil.DiffResult doInBackground(Void... params) {
+            // The rows never change, so they can be read while the list shows the old ones
+            return DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return mOldRows.count;
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return mNewRows.count;
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                    return mOldRows.ids[oldPosition] == mNewRows.ids[newPosition];
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                    return mOldRows.sameContents(oldPosition, mNewRows, newPosition);
+                }
+            }, false);
+        }
+
+        @Override
+        protected void onPostExecute(DiffUtil.DiffResult result) {
+            if (mDiffTask != this) {
+                return;
+            }
+            mDiffTask = null;
+            mRows = mNewRows;
+            result.dispatchUpdatesTo(ProductAdapter.this);
+        }
+    }
+}
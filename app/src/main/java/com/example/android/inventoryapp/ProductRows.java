@@ -0,0 +1,241 @@
+package com.example.android.inventoryapp;
+
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * The values shown in the catalog for a list of products, read out of a cursor once and kept in
+ * primitive arrays. Binding a row reads nothing but these arrays, and the rows never change once
+ * they were read, so they can be compared on a background thread while the list shows them.
+ */
+class ProductRows {
+
+    /**
+     * Image id of the rows without an image. Row ids start at 1, so no image has this id.
+     */
+    static final long NO_IMAGE = 0;
+
+    static final ProductRows EMPTY = new ProductRows(0);
+
+    final int count;
+    final long[] ids;
+    final String[] names;
+    /**
+     * Supplier names, not shown but searched, see {@link #search}
+     */
+    final String[] suppliers;
+    /**
+     * Categories, not shown but sorted and filtered by
+     */
+    final int[] categories;
+    final int[] quantities;
+    final int[] prices;
+    final long[] imageIds;
+    final int[] imageRotations;
+    /**
+     * Keys the thumbnails are cached under by the {@link ImageLoader}, null for the rows without
+     * an image. Built once with the rows, so binding a row builds no key.
+     */
+    final String[] thumbnailKeys;
+
+    private ProductRows(int count) {
+        this.count = count;
+        ids = new long[count];
+        names = new String[count];
+        suppliers = new String[count];
+        categories = new int[count];
+        quantities = new int[count];
+        prices = new int[count];
+        imageIds = new long[count];
+        imageRotations = new int[count];
+        thumbnailKeys = new String[count];
+    }
+
+    /**
+     * Read all rows of the cursor. The cursor must contain the columns of the catalog, its
+     * position is left after the last row.
+     *
+     * @param thumbnailSize Size of the thumbnails in pixels, which their keys are built for
+     */
+    static ProductRows read(Cursor cursor, int thumbnailSize) {
+        // Resolved once for the whole cursor instead of for every row
+        int idColumn = cursor.getColumnIndexOrThrow(ProductEntry._ID);
+        int nameColumn = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_NAME);
+        int supplierColumn = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+        int categoryColumn = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_CATEGORY);
+        int quantityColumn = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        int priceColumn = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_PRICE);
+        int imageIdColumn = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_IMAGE_ID);
+        int imageRotationColumn = cursor.getColumnIndexOrThrow(ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION);
+
+        ProductRows rows = new ProductRows(cursor.getCount());
+        for (int i = 0; i < rows.count && cursor.moveToPosition(i); i++) {
+            rows.ids[i] = cursor.getLong(idColumn);
+            rows.names[i] = cursor.getString(nameColumn);
+            rows.suppliers[i] = cursor.getString(supplierColumn);
+            rows.categories[i] = cursor.getInt(categoryColumn);
+            rows.quantities[i] = cursor.getInt(quantityColumn);
+            rows.prices[i] = cursor.getInt(priceColumn);
+            rows.imageIds[i] = cursor.isNull(imageIdColumn) ? NO_IMAGE : cursor.getLong(imageIdColumn);
+            rows.imageRotations[i] = cursor.getInt(imageRotationColumn);
+            if (rows.imageIds[i] != NO_IMAGE) {
+                rows.thumbnailKeys[i] = getThumbnailKey(rows.imageIds[i], thumbnailSize);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Return the key the thumbnail of the given image is cached under at the given size.
+     * A changed image gets a new image id, so the id identifies the thumbnail.
+     */
+    static String getThumbnailKey(long imageId, int thumbnailSize) {
+        return ImageLoader.getKey("thumbnail:" + imageId, thumbnailSize, thumbnailSize);
+    }
+
+    /**
+     * Return the rows of all the given lists, one after the other.
+     */
+    static ProductRows concat(ProductRows[] lists, int listCount) {
+        int count = 0;
+        for (int i = 0; i < listCount; i++) {
+            count += lists[i].count;
+        }
+        ProductRows rows = new ProductRows(count);
+        int offset = 0;
+        for (int i = 0; i < listCount; i++) {
+            ProductRows list = lists[i];
+            System.arraycopy(list.ids, 0, rows.ids, offset, list.count);
+            System.arraycopy(list.names, 0, rows.names, offset, list.count);
+            System.arraycopy(list.suppliers, 0, rows.suppliers, offset, list.count);
+            System.arraycopy(list.categories, 0, rows.categories, offset, list.count);
+            System.arraycopy(list.quantities, 0, rows.quantities, offset, list.count);
+            System.arraycopy(list.prices, 0, rows.prices, offset, list.count);
+            System.arraycopy(list.imageIds, 0, rows.imageIds, offset, list.count);
+            System.arraycopy(list.imageRotations, 0, rows.imageRotations, offset, list.count);
+            System.arraycopy(list.thumbnailKeys, 0, rows.thumbnailKeys, offset, list.count);
+            offset += list.count;
+        }
+        return rows;
+    }
+
+    /**
+     * Return the rows which match all the search terms, see {@link ProductEntry#getSearchTerms}:
+     * every term is the prefix of a word of the name or the supplier name. Like a search of the
+     * provider, the rows whose name starts with the first term come first, otherwise the rows keep
+     * their order.
+     */
+    ProductRows search(String[] terms) {
+        int[] positions = new int[count];
+        int matchCount = 0;
+        // Name matches first, then the other matches
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < count; i++) {
+                boolean nameMatch = startsWithIgnoreCase(names[i], terms[0]);
+                if ((pass == 0) == nameMatch && matches(i, terms)) {
+                    positions[matchCount++] = i;
+                }
+            }
+        }
+        return select(positions, matchCount);
+    }
+
+    /**
+     * Return the rows of the products with the given ids in the order of the ids. The ids which
+     * have no row are left out.
+     */
+    ProductRows inOrder(long[] order) {
+        int[] positions = new int[order.length];
+        int found = 0;
+        for (long id : order) {
+            int position = indexOf(id);
+            if (position != -1) {
+                positions[found++] = position;
+            }
+        }
+        return select(positions, found);
+    }
+
+    /**
+     * Return the rows at the first positionCount of the given positions, in their order.
+     */
+    private ProductRows select(int[] positions, int positionCount) {
+        ProductRows rows = new ProductRows(positionCount);
+        for (int i = 0; i < positionCount; i++) {
+            int position = positions[i];
+            rows.ids[i] = ids[position];
+            rows.names[i] = names[position];
+            rows.suppliers[i] = suppliers[position];
+            rows.categories[i] = categories[position];
+            rows.quantities[i] = quantities[position];
+            rows.prices[i] = prices[position];
+            rows.imageIds[i] = imageIds[position];
+            rows.imageRotations[i] = imageRotations[position];
+            rows.thumbnailKeys[i] = thumbnailKeys[position];
+        }
+        return rows;
+    }
+
+    private boolean matches(int position, String[] terms) {
+        return matches(names[position], suppliers[position], terms);
+    }
+
+    /**
+     * Whether a product with the given name and supplier name matches all the search terms.
+     */
+    static boolean matches(String name, String supplier, String[] terms) {
+        for (String term : terms) {
+            if (!hasWordPrefix(name, term) && !hasWordPrefix(supplier, term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a word of the text starts with the lower case term. Words are split like the terms.
+     */
+    private static boolean hasWordPrefix(String text, String term) {
+        if (text == null) {
+            return false;
+        }
+        for (int start = 0; start < text.length(); start++) {
+            boolean wordStart = Character.isLetterOrDigit(text.charAt(start))
+                    && (start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1)));
+            if (wordStart && text.regionMatches(true, start, term, 0, term.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWithIgnoreCase(String text, String prefix) {
+        return text != null && text.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    /**
+     * Return the position of the product with the given id, or -1 if it is not in the rows.
+     */
+    int indexOf(long id) {
+        for (int i = 0; i < count; i++) {
+            if (ids[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether the row at the given position shows the same values as the row of the other list.
+     */
+    boolean sameContents(int position, ProductRows other, int otherPosition) {
+        return quantities[position] == other.quantities[otherPosition]
+                && prices[position] == other.prices[otherPosition]
+                && imageIds[position] == other.imageIds[otherPosition]
+                && imageRotations[position] == other.imageRotations[otherPosition]
+                && (names[position] == null
+                ? other.names[otherPosition] == null
+                : names[position].equals(other.names[otherPosition]));
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs all writes of the app to the content provider on one background thread, so the main thread
+ * never waits for the database. Writes are applied one at a time, in the order they were
+ * submitted. The queue of waiting writes is bounded: a write submitted while it is full fails with
+ * a {@link RejectedExecutionException} instead of piling up.
+ * <p>
+ * Results and errors are delivered to the callback on the main thread, unless the
+ * {@link Request} returned for the write was cancelled before. Activities cancel their requests
+ * when they are destroyed, so a late result never reaches a dead activity, and the callbacks don't
+ * keep it in memory.
+ */
+public class ProductWriter {
+
+    private static final String LOG_TAG = ProductWriter.class.getSimpleName();
+
+    /**
+     * How many writes may wait behind the running one
+     */
+    private static final int QUEUE_CAPACITY = 64;
+    /**
+     * How long the writer thread is kept once there is nothing left to write
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * A write to the provider. Called on the writer thread.
+     */
+    public interface Write<T> {
+        T write(ContentResolver resolver) throws Exception;
+    }
+
+    /**
+     * Receives the outcome of a write on the main thread.
+     */
+    public interface Callback<T> {
+        void onWritten(T result);
+
+        /**
+         * The write threw, or it was rejected because too many writes are waiting.
+         */
+        void onError(Exception e);
+    }
+
+    /**
+     * A submitted write. Cancelling it drops the delivery of its outcome and releases the
+     * callback, the write itself still runs: once submitted, it is never taken back.
+     */
+    public static final class Request<T> {
+        private volatile Callback<T> mCallback;
+
+        private Request(Callback<T> callback) {
+            mCallback = callback;
+        }
+
+        /**
+         * Don't deliver the outcome of the write to its callback. Call on the main thread.
+         */
+        public void cancel() {
+            mCallback = null;
+        }
+
+        public boolean isCancelled() {
+            return mCallback == null;
+        }
+    }
+
+    private static ProductWriter sInstance;
+
+    private final ContentResolver mContentResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+
+    private ProductWriter(Context context) {
+        mContentResolver = context.getContentResolver();
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LOG_TAG);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Return the writer shared by the whole app, so writes of all activities stay in order.
+     */
+    public static synchronized ProductWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Run the write on the writer thread, after all writes submitted before it.
+     *
+     * @param callback Receives the result on the main thread, may be null
+     * @return The request, to cancel the delivery of the result
+     */
+    public <T> Request<T> submit(final Write<T> write, Callback<T> callback) {
+        final Request<T> request = new Request<>(callback);
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        deliverResult(request, write.write(mContentResolver));
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, "Write failed", e);
+                        deliverError(request, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(LOG_TAG, "Write rejected, " + mExecutor.getQueue().size() + " writes are waiting", e);
+            deliverError(request, e);
+        }
+        return request;
+    }
+
+    /**
+     * Insert a row, the callback receives its URI, or null if it was not inserted.
+     */
+    public Request<Uri> insert(final Uri uri, final ContentValues values, Callback<Uri> callback) {
+        return submit(new Write<Uri>() {
+            @Override
+            public Uri write(ContentResolver resolver) {
+                return resolver.insert(uri, values);
+            }
+        }, callback);
+    }
+
+    /**
+     * Update rows, the callback receives the number of updated rows.
+     */
+    public Request<Integer> update(final Uri uri, final ContentValues values, final String selection,
+                       final String[] selectionArgs, Callback<Integer> callback) {
+        return submit(new Write<Integer>() {
+            @Override
+            public Integer write(ContentResolver resolver) {
+                return resolver.update(uri, values, selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete rows, the callback receives the number of deleted rows.
+     */
+    public Request<Integer> delete(final Uri uri, final String selection, final String[] selectionArgs,
+                       Callback<Integer> callback) {
+        return submit(new Write<Integer>() {
+            @Override
+            public Integer write(ContentResolver resolver) {
+                return resolver.delete(uri, selection, selectionArgs);
+            }
+        }, callback);
+    }
+
+    /**
+     * Call a method of the provider which writes, the callback receives its result.
+     */
+    public Request<Bundle> call(final Uri uri, final String method, final String arg, final Bundle extras,
+                     Callback<Bundle> callback) {
+        return submit(new Write<Bundle>() {
+            @Override
+            public Bundle write(ContentResolver resolver) {
+                return resolver.call(uri, method, arg, extras);
+            }
+        }, callback);
+    }
+
+    private <T> void deliverResult(final Request<T> request, final T result) {
+        if (request.isCancelled()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Read on the main thread, where the request is cancelled
+                Callback<T> callback = request.mCallback;
+                if (callback != null) {
+                    callback.onWritten(result);
+                }
+            }
+        });
+    }
+
+    private <T> void deliverError(final Request<T> request, final Exception e) {
+        if (request.isCancelled()) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Callback<T> callback = request.mCallback;
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentValues;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+/**
+ * Which products a list of the catalog shows and in which order: the pages of a filter sorted by
+ * a column, or the result of a search. Tells whether the fresh values of a changed product can be
+ * patched into its row, or whether they move the product to another place or in or out of the list,
+ * which only reloading the rows shows.
+ */
+final class ShownProducts {
+
+    /**
+     * Column the pages are sorted by, null for a search
+     */
+    private final String mSortColumn;
+    /**
+     * Filter of the pages, see {@link ProductEntry#SELECTION_CATEGORY} and the other selections,
+     * null for all products
+     */
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    /**
+     * Words of the search, null for the pages
+     */
+    private final String[] mSearchTerms;
+
+    private ShownProducts(String sortColumn, String selection, String[] selectionArgs, String[] searchTerms) {
+        mSortColumn = sortColumn;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSearchTerms = searchTerms;
+    }
+
+    /**
+     * The pages of the products matching the selection, or of all products for a null selection,
+     * sorted by the column.
+     */
+    static ShownProducts forPages(String sortColumn, String selection, String[] selectionArgs) {
+        return new ShownProducts(sortColumn, selection, selectionArgs, null);
+    }
+
+    /**
+     * The result of a search for the terms, see {@link ProductEntry#getSearchTerms}. Its rank
+     * depends on the name and the supplier name.
+     */
+    static ShownProducts forSearch(String[] searchTerms) {
+        return new ShownProducts(null, null, null, searchTerms);
+    }
+
+    /**
+     * Whether a product with the values belongs in the list.
+     */
+    boolean matches(ContentValues values) {
+        if (mSearchTerms != null) {
+            return ProductRows.matches(values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME),
+                    values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME), mSearchTerms);
+        }
+        if (ProductEntry.SELECTION_CATEGORY.equals(mSelection)) {
+            return getInt(values, ProductEntry.COLUMN_PRODUCT_CATEGORY) == Integer.parseInt(mSelectionArgs[0]);
+        }
+        if (ProductEntry.SELECTION_PRICE_RANGE.equals(mSelection)) {
+            int price = getInt(values, ProductEntry.COLUMN_PRODUCT_PRICE);
+            return price >= Integer.parseInt(mSelectionArgs[0]) && price <= Integer.parseInt(mSelectionArgs[1]);
+        }
+        if (ProductEntry.SELECTION_LOW_STOCK.equals(mSelection)) {
+            return getInt(values, ProductEntry.COLUMN_PRODUCT_QUANTITY) <= Integer.parseInt(mSelectionArgs[0]);
+        }
+        return true;
+    }
+
+    /**
+     * Whether the product with the given id and fresh values can be patched into the loaded rows
+     * of this list: it is in the rows, still belongs in the list, and the values it is ordered by
+     * are the loaded ones. A product which is not in the rows can only be left out if it doesn't
+     * belong in the list either.
+     */
+    boolean canPatch(ProductRows rows, long id, ContentValues values) {
+        int position = rows.indexOf(id);
+        if (position == -1) {
+            return !matches(values);
+        }
+        if (!matches(values)) {
+            return false;
+        }
+        if (mSearchTerms != null) {
+            return equals(rows.names[position], values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME))
+                    && equals(rows.suppliers[position], values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+        }
+        switch (mSortColumn) {
+            case ProductEntry.COLUMN_PRODUCT_NAME:
+                return equals(rows.names[position], values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+            case ProductEntry.COLUMN_PRODUCT_CATEGORY:
+                return rows.categories[position] == getInt(values, ProductEntry.COLUMN_PRODUCT_CATEGORY);
+            case ProductEntry.COLUMN_PRODUCT_PRICE:
+                return rows.prices[position] == getInt(values, ProductEntry.COLUMN_PRODUCT_PRICE);
+            case ProductEntry.COLUMN_PRODUCT_QUANTITY:
+                return rows.quantities[position] == getInt(values, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+            default:
+                // The id never changes
+                return true;
+        }
+    }
+
+    /**
+     * Return the number in the column of the values, 0 for none like a cursor.
+     */
+    private static int getInt(ContentValues values, String column) {
+        Integer value = values.getAsInteger(column);
+        return value == null ? 0 : value;
+    }
+
+    private static boolean equals(String text, String other) {
+        return text == null ? other == null : text.equals(other);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.android.inventoryapp;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.LongSparseArray;
+
+import com.example.android.inventoryapp.data.ProductContract;
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.Arrays;
+
+/**
+ * Collects quantity adjustments and writes them behind the UI. The deltas of each product are
+ * merged for {@link #FLUSH_DELAY_MILLIS} after the first adjustment, then all of them are applied
+ * in a single transaction off the main thread. Until then {@link #getUnsavedDelta(long)} tells how
+ * much the shown quantity of a product differs from the stored one.
+ * <p>
+ * All methods must be called on the main thread.
+ */
+public class StockAdjustmentQueue {
+
+    /**
+     * How long adjustments are collected before they are written
+     */
+    private static final long FLUSH_DELAY_MILLIS = 500;
+
+    /**
+     * Receives the outcome of each flush on the main thread.
+     */
+    public interface Listener {
+        /**
+         * The quantities of the given products were adjusted. A quantity is -1 if the delta of its
+         * product was not applied, because the product is gone or the write failed. A delta which
+         * is more than the stock is applied up to the stock, the rest of it is in unappliedDeltas.
+         */
+        void onQuantitiesAdjusted(long[] ids, int[] quantities, int[] unappliedDeltas);
+    }
+
+    private final ProductWriter mWriter;
+    private final Handler mHandler = new Handler();
+    /**
+     * Merged deltas which were not written yet, by product id
+     */
+    private final LongSparseArray<Integer> mPendingDeltas = new LongSparseArray<>();
+    /**
+     * Deltas which are being written, by product id
+     */
+    private final LongSparseArray<Integer> mWritingDeltas = new LongSparseArray<>();
+    private Listener mListener;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public StockAdjustmentQueue(ProductWriter writer) {
+        mWriter = writer;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Add the delta to the quantity of the given product with the next flush.
+     */
+    public void adjust(long id, int delta) {
+        if (mPendingDeltas.size() == 0) {
+            mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MILLIS);
+        }
+        mPendingDeltas.put(id, mPendingDeltas.get(id, 0) + delta);
+    }
+
+    /**
+     * Return the sum of the deltas of the given product which are not stored yet.
+     */
+    public int getUnsavedDelta(long id) {
+        return mPendingDeltas.get(id, 0) + mWritingDeltas.get(id, 0);
+    }
+
+    /**
+     * Start writing all pending adjustments now. Flushes are written one after the other, in order.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mPendingDeltas.size() == 0) {
+            return;
+        }
+
+        long[] ids = new long[mPendingDeltas.size()];
+        int[] deltas = new int[mPendingDeltas.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mPendingDeltas.keyAt(i);
+            deltas[i] = mPendingDeltas.valueAt(i);
+            mWritingDeltas.put(ids[i], mWritingDeltas.get(ids[i], 0) + deltas[i]);
+        }
+        mPendingDeltas.clear();
+
+        writeDeltas(ids, deltas);
+    }
+
+    /**
+     * Write the deltas of one flush in the background. The writer applies its writes one at a
+     * time, so the flushes reach the provider in the order they were started.
+     */
+    private void writeDeltas(final long[] ids, final int[] deltas) {
+        Bundle extras = new Bundle();
+        extras.putLongArray(ProductContract.EXTRA_PRODUCT_IDS, ids);
+        extras.putIntArray(ProductContract.EXTRA_QUANTITY_DELTAS, deltas);
+        mWriter.call(ProductEntry.CONTENT_URI, ProductContract.METHOD_ADJUST_QUANTITIES, null, extras,
+                new ProductWriter.Callback<Bundle>() {
+                    @Override
+                    public void onWritten(Bundle result) {
+                        if (result == null) {
+                            // The provider is gone, e.g. its process died
+                            onError(null);
+                            return;
+                        }
+                        onDeltasWritten(ids, deltas, result.getIntArray(ProductContract.EXTRA_QUANTITIES),
+                                result.getIntArray(ProductContract.EXTRA_UNAPPLIED_DELTAS));
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        // None of the deltas was applied
+                        int[] quantities = new int[ids.length];
+                        Arrays.fill(quantities, -1);
+                        onDeltasWritten(ids, deltas, quantities, deltas);
+                    }
+                });
+    }
+
+    private void onDeltasWritten(long[] ids, int[] deltas, int[] quantities, int[] unappliedDeltas) {
+        for (int i = 0; i < ids.length; i++) {
+            int remaining = mWritingDeltas.get(ids[i], 0) - deltas[i];
+            if (remaining == 0) {
+                mWritingDeltas.remove(ids[i]);
+            } else {
+                mWritingDeltas.put(ids[i], remaining);
+            }
+        }
+        if (mListener != null) {
+            mListener.onQuantitiesAdjusted(ids, quantities, unappliedDeltas);
+        }
+    }
+}
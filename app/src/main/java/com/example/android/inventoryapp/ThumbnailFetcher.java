@@ -0,0 +1,128 @@
+package com.example.android.inventoryapp;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.LongSparseArray;
+
+import com.example.android.inventoryapp.data.ProductContract.ImageEntry;
+
+/**
+ * Reads the thumbnails of the catalog from the provider a page at a time. The first thumbnail of a
+ * page that is in neither cache of the {@link ImageLoader} queries the thumbnails of all the images
+ * of its page at once, and the other rows of the page are decoded from the fetched bytes, instead
+ * of every row querying its own image.
+ * <p>
+ * The sources are decoded on the background threads of the image loader.
+ */
+class ThumbnailFetcher {
+
+    /**
+     * Number of rows whose thumbnails are read together, a page of the catalog
+     */
+    private static final int BATCH_SIZE = CatalogActivity.PAGE_SIZE;
+    /**
+     * Fetched thumbnails which were not decoded yet, like the ones of rows that were cached on
+     * disk, are dropped once there are more than this
+     */
+    private static final int MAX_FETCHED = 2 * BATCH_SIZE;
+
+    private static final byte[] NO_THUMBNAIL = new byte[0];
+    private static final String[] PROJECTION = {
+            ImageEntry._ID,
+            ImageEntry.COLUMN_IMAGE_THUMBNAIL
+    };
+
+    private final ContentResolver mContentResolver;
+    /**
+     * Thumbnails of the last pages by image id, each one removed when it is decoded
+     */
+    private final LongSparseArray<byte[]> mFetched = new LongSparseArray<>();
+
+    ThumbnailFetcher(ContentResolver contentResolver) {
+        mContentResolver = contentResolver;
+    }
+
+    /**
+     * Return a source decoding the thumbnail of the given image, shown in the row at the given
+     * position, with the given rotation. Nothing is queried unless it is decoded. The image is not
+     * decoded at all if it has no thumbnail.
+     */
+    ImageLoader.Source newSource(final long imageId, final int rotation, final ProductRows rows,
+                                 final int position) {
+        return new ImageLoader.Source() {
+            private byte[] mBytes;
+
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                if (mBytes == null) {
+                    mBytes = fetch(imageId, rows, position);
+                }
+                return mBytes.length == 0 ? null : BitmapFactory.decodeByteArray(mBytes, 0, mBytes.length, options);
+            }
+
+            @Override
+            public int getRotation() {
+                return rotation;
+            }
+        };
+    }
+
+    /**
+     * Return the thumbnail of the image, or no bytes if there is none. Unless it was fetched
+     * with its page already, it is queried together with the thumbnails of the other rows of the
+     * page. Loads waiting meanwhile find their thumbnail among the fetched ones.
+     */
+    private synchronized byte[] fetch(long imageId, ProductRows rows, int position) {
+        byte[] thumbnail = mFetched.get(imageId);
+        if (thumbnail != null) {
+            mFetched.remove(imageId);
+            return thumbnail;
+        }
+
+        int start = position - position % BATCH_SIZE;
+        int end = Math.min(start + BATCH_SIZE, rows.count);
+        String[] idArgs = new String[end - start + 1];
+        idArgs[0] = String.valueOf(imageId);
+        int idCount = 1;
+        for (int i = start; i < end; i++) {
+            long id = rows.imageIds[i];
+            if (id != ProductRows.NO_IMAGE && id != imageId && mFetched.indexOfKey(id) < 0) {
+                idArgs[idCount++] = String.valueOf(id);
+            }
+        }
+        if (mFetched.size() + idCount > MAX_FETCHED) {
+            mFetched.clear();
+        }
+
+        StringBuilder selection = new StringBuilder(ImageEntry._ID).append(" IN (?");
+        for (int i = 1; i < idCount; i++) {
+            selection.append(", ?");
+        }
+        selection.append(')');
+        String[] selectionArgs = new String[idCount];
+        System.arraycopy(idArgs, 0, selectionArgs, 0, idCount);
+
+        thumbnail = NO_THUMBNAIL;
+        Cursor cursor = mContentResolver.query(ImageEntry.CONTENT_URI, PROJECTION,
+                selection.toString(), selectionArgs, null);
+        if (cursor == null) {
+            return thumbnail;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                byte[] bytes = cursor.isNull(1) ? NO_THUMBNAIL : cursor.getBlob(1);
+                if (id == imageId) {
+                    thumbnail = bytes;
+                } else {
+                    mFetched.put(id, bytes);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return thumbnail;
+    }
+}
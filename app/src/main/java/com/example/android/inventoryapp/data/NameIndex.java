@@ -0,0 +1,836 @@
+package com.example.android.inventoryapp.data;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Suggests names while they are typed, from the distinct names of one column of the products. A
+ * prefix trie finds the names which complete the typed text, also with a typo in it, and a trigram
+ * index finds the names similar to a complete one. Names are compared in a normalized form, lower
+ * case and without spaces or punctuation, so "T-shirt" and "Tshirt" are the same name. A name is
+ * suggested in the spelling of one of its products, the first one seen which a product still
+ * uses, and names used by more products rank first.
+ * <p>
+ * The provider keeps the index up to date with {@link #put} and {@link #remove} on every write.
+ * Not thread-safe, the provider guards it with a lock.
+ */
+class NameIndex {
+
+    /**
+     * Most suggestions returned for one text. Every trie node with more names below it keeps its
+     * best ones, so a completion costs a walk down the typed prefix.
+     */
+    static final int MAX_SUGGESTIONS = 8;
+    /**
+     * Share of their trigrams two names have to have in common to be similar
+     */
+    private static final float MIN_SIMILARITY = 0.5f;
+    /**
+     * Shorter texts are too short to tell a typo from another name
+     */
+    private static final int MIN_CORRECTION_LENGTH = 3;
+    /**
+     * Typed texts at least this long may have two typos, shorter ones one
+     */
+    private static final int MIN_LENGTH_FOR_TWO_TYPOS = 6;
+    private static final String[] NO_NAMES = new String[0];
+
+    /**
+     * The distinct names, by entry. Entries of names no product uses anymore are reused.
+     */
+    private String[] mKeys = new String[16];
+    private String[] mNames = new String[16];
+    /**
+     * Number of products using each name, and the number of those spelling it like mNames
+     */
+    private int[] mCounts = new int[16];
+    private int[] mSpellingCounts = new int[16];
+    /**
+     * Number of distinct trigrams of each name
+     */
+    private int[] mTrigramCounts = new int[16];
+    private int mEntryCount;
+    private int[] mFreeEntries = new int[16];
+    private int mFreeCount;
+
+    /**
+     * The entry and the spelling of the name of each product, by product id in ascending order,
+     * -1 and null for a name without letters or digits
+     */
+    private long[] mProductIds = new long[16];
+    private int[] mProductEntries = new int[16];
+    private String[] mProductNames = new String[16];
+    private int mProductCount;
+
+    private final Node mRoot = new Node(null, "", 0, 0);
+
+    /**
+     * Open addressing hash table from each trigram to the entries of the names containing it
+     */
+    private long[] mTrigrams = new long[64];
+    private Postings[] mPostings = new Postings[64];
+    private int mTrigramCount;
+
+    /**
+     * Scratch space of the similar names: the trigrams each entry shares with the name, and the
+     * entries which share any
+     */
+    private int[] mShared = new int[16];
+    private int[] mTouched = new int[16];
+
+    /**
+     * Set the name of a product, adding the product if it is not in the index yet.
+     */
+    void put(long productId, String name) {
+        String key = name == null ? "" : normalize(name);
+        String spelling = key.isEmpty() ? null : name.trim();
+        int position = Arrays.binarySearch(mProductIds, 0, mProductCount, productId);
+        if (position >= 0) {
+            int oldEntry = mProductEntries[position];
+            String oldSpelling = mProductNames[position];
+            if (oldEntry == -1 ? spelling == null : oldSpelling.equals(spelling)) {
+                return;
+            }
+            // Taken out first, so the old name isn't spelled like this product anymore
+            mProductEntries[position] = -1;
+            mProductNames[position] = null;
+            if (oldEntry != -1) {
+                release(oldEntry, oldSpelling);
+            }
+        } else {
+            position = -position - 1;
+            insertProduct(position, productId);
+        }
+        mProductEntries[position] = spelling == null ? -1 : acquire(key, spelling);
+        mProductNames[position] = spelling;
+    }
+
+    /**
+     * Remove a product, if it is in the index.
+     */
+    void remove(long productId) {
+        int position = Arrays.binarySearch(mProductIds, 0, mProductCount, productId);
+        if (position < 0) {
+            return;
+        }
+        int entry = mProductEntries[position];
+        String spelling = mProductNames[position];
+        int moved = mProductCount - position - 1;
+        System.arraycopy(mProductIds, position + 1, mProductIds, position, moved);
+        System.arraycopy(mProductEntries, position + 1, mProductEntries, position, moved);
+        System.arraycopy(mProductNames, position + 1, mProductNames, position, moved);
+        mProductCount--;
+        mProductNames[mProductCount] = null;
+        if (entry != -1) {
+            release(entry, spelling);
+        }
+    }
+
+    /**
+     * Return at most limit names which start with the text, the names used most first.
+     */
+    String[] suggest(String text, int limit) {
+        String prefix = normalize(text);
+        Node node = prefix.isEmpty() ? null : findPrefix(prefix);
+        if (node == null) {
+            return NO_NAMES;
+        }
+        int[] best = getBest(node);
+        String[] names = new String[Math.min(limit, best.length)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = mNames[best[i]];
+        }
+        return names;
+    }
+
+    /**
+     * Return at most limit names which start with the text if a typo or two are corrected, for a
+     * text which doesn't start any name or too few. A typo is a missing, extra, wrong or swapped
+     * character. The names with fewer typos come first, the names which start with the text
+     * itself are left out.
+     */
+    String[] correct(String text, int limit) {
+        String query = normalize(text);
+        if (query.length() < MIN_CORRECTION_LENGTH || limit <= 0) {
+            return NO_NAMES;
+        }
+        int maxTypos = query.length() < MIN_LENGTH_FOR_TWO_TYPOS ? 1 : 2;
+
+        // Row i holds the edit distances between the prefix of length i of the trie path and
+        // every prefix of the query. Prefixes longer than this are too far off anyway.
+        int[][] rows = new int[query.length() + maxTypos + 1][query.length() + 1];
+        for (int j = 0; j <= query.length(); j++) {
+            rows[0][j] = j;
+        }
+        Corrections corrections = new Corrections(query, limit);
+        correct(mRoot, query, maxTypos + 1, rows, corrections);
+        return corrections.getNames();
+    }
+
+    /**
+     * Walk the children of the node, computing the edit distance between the query and the
+     * prefix of each trie path. Offer the names below each node whose prefix is closer to the
+     * query than the prefixes above it. Stop once no longer prefix can come close enough.
+     *
+     * @param closest Typos of the closest prefix above the children, or more than allowed
+     */
+    private void correct(Node node, String query, int closest, int[][] rows, Corrections corrections) {
+        int queryLength = query.length();
+        for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+            int childClosest = closest;
+            boolean descend = true;
+            for (int i = child.start + 1; i <= child.end && descend; i++) {
+                if (i == rows.length) {
+                    descend = false;
+                    break;
+                }
+                int minTypos = fillRow(rows, i, child.key, query);
+                int typos = rows[i][queryLength];
+                if (typos == 0) {
+                    // The query itself, the names below are completions
+                    descend = false;
+                } else if (typos < childClosest) {
+                    childClosest = typos;
+                    corrections.offer(child, typos);
+                }
+                if (minTypos >= childClosest) {
+                    // No longer prefix comes closer
+                    descend = false;
+                }
+            }
+            if (descend) {
+                correct(child, query, childClosest, rows, corrections);
+            }
+        }
+    }
+
+    /**
+     * Fill row i of the edit distances, see {@link #correct(String, int)}, for a trie path which
+     * spells key[0, i). Swapping two neighbouring characters counts as one typo. Return the
+     * smallest distance of the row.
+     */
+    private static int fillRow(int[][] rows, int i, String key, String query) {
+        char c = key.charAt(i - 1);
+        int[] previous = rows[i - 1];
+        int[] row = rows[i];
+        row[0] = i;
+        int min = i;
+        for (int j = 1; j < row.length; j++) {
+            int distance = Math.min(Math.min(previous[j], row[j - 1]) + 1,
+                    previous[j - 1] + (c == query.charAt(j - 1) ? 0 : 1));
+            if (i > 1 && j > 1 && c == query.charAt(j - 2) && key.charAt(i - 2) == query.charAt(j - 1)) {
+                distance = Math.min(distance, rows[i - 2][j - 2] + 1);
+            }
+            row[j] = distance;
+            min = Math.min(min, distance);
+        }
+        return min;
+    }
+
+    /**
+     * Return at most limit names similar to the complete name, other spellings of the same name
+     * included, the most similar names first. The name itself is left out. Names are similar if
+     * they have enough of their trigrams in common, so a missing word or swapped words count
+     * less than in an edit distance.
+     */
+    String[] findSimilar(String name, int limit) {
+        String key = normalize(name);
+        if (key.length() < MIN_CORRECTION_LENGTH || limit <= 0) {
+            return NO_NAMES;
+        }
+        long[] trigrams = getTrigrams(key);
+
+        // A similar name has at least minShared of the trigrams, so it has one of the rarest
+        // trigrams left after taking away minShared - 1. Only the names of those are candidates,
+        // the more common trigrams are counted for the candidates only.
+        int minShared = (int) Math.ceil(MIN_SIMILARITY * trigrams.length);
+        Postings[] postings = new Postings[trigrams.length];
+        for (int i = 0; i < trigrams.length; i++) {
+            postings[i] = getPostings(trigrams[i], false);
+        }
+        Arrays.sort(postings, 0, postings.length, POSTINGS_BY_SIZE);
+        int candidateTrigrams = trigrams.length - minShared + 1;
+        int touchedCount = 0;
+        for (int i = 0; i < postings.length; i++) {
+            if (postings[i] == null) {
+                continue;
+            }
+            int[] entries = postings[i].entries;
+            for (int p = 0; p < postings[i].size; p++) {
+                int entry = entries[p];
+                if (mShared[entry] > 0) {
+                    mShared[entry]++;
+                } else if (i < candidateTrigrams) {
+                    mShared[entry] = 1;
+                    mTouched[touchedCount++] = entry;
+                }
+            }
+        }
+
+        int[] best = new int[limit];
+        float[] similarities = new float[limit];
+        int count = 0;
+        String trimmedName = name.trim();
+        for (int t = 0; t < touchedCount; t++) {
+            int entry = mTouched[t];
+            int shared = mShared[entry];
+            mShared[entry] = 0;
+            if (shared < minShared || mNames[entry].equals(trimmedName)) {
+                continue;
+            }
+            float similarity = shared / (float) (trigrams.length + mTrigramCounts[entry] - shared);
+            if (similarity < MIN_SIMILARITY) {
+                continue;
+            }
+            int i = count;
+            if (count < limit) {
+                count++;
+            } else if (similarity > similarities[limit - 1]
+                    || (similarity == similarities[limit - 1] && ranksBefore(entry, best[limit - 1]))) {
+                i = limit - 1;
+            } else {
+                continue;
+            }
+            for (; i > 0 && (similarity > similarities[i - 1]
+                    || (similarity == similarities[i - 1] && ranksBefore(entry, best[i - 1]))); i--) {
+                best[i] = best[i - 1];
+                similarities[i] = similarities[i - 1];
+            }
+            best[i] = entry;
+            similarities[i] = similarity;
+        }
+
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = mNames[best[i]];
+        }
+        return names;
+    }
+
+    /**
+     * Return the form names are compared in: lower case letters and digits only.
+     */
+    static String normalize(String name) {
+        StringBuilder key = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                key.append(Character.toLowerCase(c));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Count one more product using the name, adding it if it is new. Return its entry.
+     */
+    private int acquire(String key, String name) {
+        Node node = findPrefix(key);
+        if (node != null && node.end == key.length() && node.entry != -1) {
+            mCounts[node.entry]++;
+            if (mNames[node.entry].equals(name)) {
+                mSpellingCounts[node.entry]++;
+            }
+            invalidate(node);
+            return node.entry;
+        }
+        int entry = newEntry();
+        mKeys[entry] = key;
+        mNames[entry] = name;
+        mCounts[entry] = 1;
+        mSpellingCounts[entry] = 1;
+        insert(key, entry);
+        long[] trigrams = getTrigrams(key);
+        mTrigramCounts[entry] = trigrams.length;
+        for (long trigram : trigrams) {
+            getPostings(trigram, true).add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Count one product less using the name of the entry in the given spelling, removing the name
+     * once none does. Call once the product is out of the product arrays.
+     */
+    private void release(int entry, String name) {
+        Node node = findPrefix(mKeys[entry]);
+        if (--mCounts[entry] > 0) {
+            if (mNames[entry].equals(name) && --mSpellingCounts[entry] == 0) {
+                respell(entry);
+            }
+            invalidate(node);
+            return;
+        }
+        delete(node);
+        for (long trigram : getTrigrams(mKeys[entry])) {
+            getPostings(trigram, false).remove(entry);
+        }
+        mKeys[entry] = null;
+        mNames[entry] = null;
+        if (mFreeCount == mFreeEntries.length) {
+            mFreeEntries = Arrays.copyOf(mFreeEntries, mFreeCount * 2);
+        }
+        mFreeEntries[mFreeCount++] = entry;
+    }
+
+    /**
+     * Spell the name of the entry like the first of the products still using it, after no
+     * product spells it the old way anymore. Takes a pass over the products, only done when a
+     * spelling goes out of use.
+     */
+    private void respell(int entry) {
+        String name = null;
+        int count = 0;
+        for (int i = 0; i < mProductCount; i++) {
+            if (mProductEntries[i] != entry) {
+                continue;
+            }
+            if (name == null) {
+                name = mProductNames[i];
+            }
+            if (name.equals(mProductNames[i])) {
+                count++;
+            }
+        }
+        mNames[entry] = name;
+        mSpellingCounts[entry] = count;
+    }
+
+    private int newEntry() {
+        if (mFreeCount > 0) {
+            return mFreeEntries[--mFreeCount];
+        }
+        if (mEntryCount == mKeys.length) {
+            int capacity = mEntryCount * 2;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mNames = Arrays.copyOf(mNames, capacity);
+            mCounts = Arrays.copyOf(mCounts, capacity);
+            mSpellingCounts = Arrays.copyOf(mSpellingCounts, capacity);
+            mTrigramCounts = Arrays.copyOf(mTrigramCounts, capacity);
+            mShared = Arrays.copyOf(mShared, capacity);
+            mTouched = Arrays.copyOf(mTouched, capacity);
+        }
+        return mEntryCount++;
+    }
+
+    private void insertProduct(int position, long productId) {
+        if (mProductCount == mProductIds.length) {
+            mProductIds = Arrays.copyOf(mProductIds, mProductCount * 2);
+            mProductEntries = Arrays.copyOf(mProductEntries, mProductCount * 2);
+            mProductNames = Arrays.copyOf(mProductNames, mProductCount * 2);
+        }
+        int moved = mProductCount - position;
+        System.arraycopy(mProductIds, position, mProductIds, position + 1, moved);
+        System.arraycopy(mProductEntries, position, mProductEntries, position + 1, moved);
+        System.arraycopy(mProductNames, position, mProductNames, position + 1, moved);
+        mProductIds[position] = productId;
+        mProductCount++;
+    }
+
+    /**
+     * Whether the entry ranks before the other one: it is used by more products, or by as many
+     * and comes first alphabetically.
+     */
+    private boolean ranksBefore(int entry, int other) {
+        return mCounts[entry] > mCounts[other]
+                || (mCounts[entry] == mCounts[other] && mKeys[entry].compareTo(mKeys[other]) < 0);
+    }
+
+    /**
+     * Collects the best corrections: the names below the offered nodes, with the fewest typos
+     * first and then by rank. A name offered more than once keeps its fewest typos, the names
+     * starting with the query are completions and left out.
+     */
+    private class Corrections {
+
+        private final String mQuery;
+        private final int[] mEntries;
+        private final int[] mTypos;
+        private int mCount;
+
+        Corrections(String query, int limit) {
+            mQuery = query;
+            mEntries = new int[limit];
+            mTypos = new int[limit];
+        }
+
+        void offer(Node node, int typos) {
+            int length = Math.min(node.end, mQuery.length());
+            if (!node.key.regionMatches(0, mQuery, 0, length)) {
+                // No name below starts with the query
+                for (int entry : getBest(node)) {
+                    offer(entry, typos);
+                }
+            } else if (node.end < mQuery.length()) {
+                // Leave out the names of the child which continues the query
+                if (node.entry != -1) {
+                    offer(node.entry, typos);
+                }
+                for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+                    offer(child, typos);
+                }
+            }
+        }
+
+        private void offer(int entry, int typos) {
+            for (int i = 0; i < mCount; i++) {
+                if (mEntries[i] == entry) {
+                    if (mTypos[i] <= typos) {
+                        return;
+                    }
+                    // Take it out, it goes in again further up
+                    System.arraycopy(mEntries, i + 1, mEntries, i, mCount - i - 1);
+                    System.arraycopy(mTypos, i + 1, mTypos, i, mCount - i - 1);
+                    mCount--;
+                    break;
+                }
+            }
+            int i = mCount;
+            if (mCount < mEntries.length) {
+                mCount++;
+            } else if (ranksBefore(entry, typos, mCount - 1)) {
+                i = mCount - 1;
+            } else {
+                return;
+            }
+            for (; i > 0 && ranksBefore(entry, typos, i - 1); i--) {
+                mEntries[i] = mEntries[i - 1];
+                mTypos[i] = mTypos[i - 1];
+            }
+            mEntries[i] = entry;
+            mTypos[i] = typos;
+        }
+
+        private boolean ranksBefore(int entry, int typos, int position) {
+            return typos < mTypos[position]
+                    || (typos == mTypos[position] && NameIndex.this.ranksBefore(entry, mEntries[position]));
+        }
+
+        String[] getNames() {
+            String[] names = new String[mCount];
+            for (int i = 0; i < mCount; i++) {
+                names[i] = mNames[mEntries[i]];
+            }
+            return names;
+        }
+    }
+
+    // Trie
+
+    /**
+     * Return the node below which are exactly the names starting with the prefix, or null if no
+     * name does. The prefix may end inside the label of the returned node.
+     */
+    private Node findPrefix(String prefix) {
+        Node node = mRoot;
+        while (node.end < prefix.length()) {
+            Node child = findChild(node, prefix.charAt(node.end));
+            if (child == null) {
+                return null;
+            }
+            int length = Math.min(child.end, prefix.length()) - child.start;
+            if (!child.key.regionMatches(child.start, prefix, child.start, length)) {
+                return null;
+            }
+            node = child;
+        }
+        return node;
+    }
+
+    private void insert(String key, int entry) {
+        Node node = mRoot;
+        while (true) {
+            node.size++;
+            node.best = null;
+            if (node.end == key.length()) {
+                node.entry = entry;
+                return;
+            }
+            Node child = findChild(node, key.charAt(node.end));
+            if (child == null) {
+                Node leaf = new Node(node, key, node.end, key.length());
+                leaf.entry = entry;
+                leaf.size = 1;
+                addChild(node, leaf);
+                return;
+            }
+            int common = 1;
+            while (child.start + common < child.end && child.start + common < key.length()
+                    && child.key.charAt(child.start + common) == key.charAt(child.start + common)) {
+                common++;
+            }
+            if (child.start + common < child.end) {
+                // The key leaves the label in its middle, split the label there
+                Node middle = new Node(node, child.key, child.start, child.start + common);
+                middle.size = child.size;
+                removeChild(node, child);
+                addChild(node, middle);
+                child.start = middle.end;
+                child.parent = middle;
+                addChild(middle, child);
+                child = middle;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Remove the entry of the node, and the nodes which are not needed anymore without it.
+     */
+    private void delete(Node node) {
+        node.entry = -1;
+        for (Node n = node; n != null; n = n.parent) {
+            n.size--;
+            n.best = null;
+        }
+        if (node == mRoot) {
+            return;
+        }
+        if (node.firstChild == null) {
+            Node parent = node.parent;
+            removeChild(parent, node);
+            if (parent != mRoot && parent.entry == -1 && parent.firstChild.nextSibling == null) {
+                mergeWithChild(parent);
+            }
+        } else if (node.firstChild.nextSibling == null) {
+            mergeWithChild(node);
+        }
+    }
+
+    /**
+     * Replace the node and its only child by one node with both labels.
+     */
+    private static void mergeWithChild(Node node) {
+        Node child = node.firstChild;
+        // The key of the child starts with the label of the node
+        node.key = child.key;
+        node.end = child.end;
+        node.entry = child.entry;
+        node.size = child.size;
+        node.best = child.best;
+        node.firstChild = child.firstChild;
+        for (Node grandchild = node.firstChild; grandchild != null; grandchild = grandchild.nextSibling) {
+            grandchild.parent = node;
+        }
+    }
+
+    /**
+     * Drop the best names cached on the path to the node, after the rank of a name below it changed.
+     */
+    private static void invalidate(Node node) {
+        for (Node n = node; n != null; n = n.parent) {
+            n.best = null;
+        }
+    }
+
+    /**
+     * Return the best entries below the node, at most {@link #MAX_SUGGESTIONS}, best first.
+     */
+    private int[] getBest(Node node) {
+        if (node.best != null) {
+            return node.best;
+        }
+        int[] best = new int[Math.min(node.size, MAX_SUGGESTIONS)];
+        int count = 0;
+        if (node.entry != -1) {
+            count = offer(best, count, node.entry);
+        }
+        for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+            for (int entry : getBest(child)) {
+                count = offer(best, count, entry);
+            }
+        }
+        // Small subtrees are quicker to collect again than to keep
+        if (node.size > MAX_SUGGESTIONS) {
+            node.best = best;
+        }
+        return best;
+    }
+
+    /**
+     * Insert the entry into the ranked list of count entries if it ranks high enough.
+     * Return the new count.
+     */
+    private int offer(int[] best, int count, int entry) {
+        int i = count;
+        if (count < best.length) {
+            count++;
+        } else if (ranksBefore(entry, best[count - 1])) {
+            i = count - 1;
+        } else {
+            return count;
+        }
+        for (; i > 0 && ranksBefore(entry, best[i - 1]); i--) {
+            best[i] = best[i - 1];
+        }
+        best[i] = entry;
+        return count;
+    }
+
+    private static Node findChild(Node node, char c) {
+        for (Node child = node.firstChild; child != null; child = child.nextSibling) {
+            if (child.key.charAt(child.start) == c) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private static void addChild(Node node, Node child) {
+        child.nextSibling = node.firstChild;
+        node.firstChild = child;
+    }
+
+    private static void removeChild(Node node, Node child) {
+        if (node.firstChild == child) {
+            node.firstChild = child.nextSibling;
+        } else {
+            Node previous = node.firstChild;
+            while (previous.nextSibling != child) {
+                previous = previous.nextSibling;
+            }
+            previous.nextSibling = child.nextSibling;
+        }
+        child.nextSibling = null;
+    }
+
+    /**
+     * A node of the trie. The nodes on the path to it spell the prefix key[0, end), its own
+     * label is key[start, end). The key is the normalized name of an entry below the node.
+     */
+    private static class Node {
+
+        Node parent;
+        String key;
+        int start;
+        int end;
+        Node firstChild;
+        Node nextSibling;
+        /**
+         * Entry of the name which ends at this node, -1 if none does
+         */
+        int entry = -1;
+        /**
+         * Number of names at and below this node
+         */
+        int size;
+        /**
+         * The best entries below this node, null while they are not known
+         */
+        int[] best;
+
+        Node(Node parent, String key, int start, int end) {
+            this.parent = parent;
+            this.key = key;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    // Trigrams
+
+    /**
+     * Return the distinct trigrams of the key, with two spaces before the key and one after it, so
+     * the start of a name weighs more than its end. Each trigram is packed into a long.
+     */
+    private static long[] getTrigrams(String key) {
+        String padded = "  " + key + " ";
+        long[] trigrams = new long[padded.length() - 2];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = ((long) padded.charAt(i) << 32)
+                    | ((long) padded.charAt(i + 1) << 16)
+                    | padded.charAt(i + 2);
+        }
+        Arrays.sort(trigrams);
+        int count = 0;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+                trigrams[count++] = trigrams[i];
+            }
+        }
+        return count == trigrams.length ? trigrams : Arrays.copyOf(trigrams, count);
+    }
+
+    /**
+     * Return the entries of the names containing the trigram. Return null for an unknown trigram,
+     * unless create is set.
+     */
+    private Postings getPostings(long trigram, boolean create) {
+        int mask = mTrigrams.length - 1;
+        int slot = hash(trigram) & mask;
+        while (mPostings[slot] != null) {
+            if (mTrigrams[slot] == trigram) {
+                return mPostings[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (!create) {
+            return null;
+        }
+        if ((mTrigramCount + 1) * 2 > mTrigrams.length) {
+            growTrigrams();
+            return getPostings(trigram, true);
+        }
+        mTrigrams[slot] = trigram;
+        mPostings[slot] = new Postings();
+        mTrigramCount++;
+        return mPostings[slot];
+    }
+
+    private void growTrigrams() {
+        long[] trigrams = mTrigrams;
+        Postings[] postings = mPostings;
+        mTrigrams = new long[trigrams.length * 2];
+        mPostings = new Postings[postings.length * 2];
+        int mask = mTrigrams.length - 1;
+        for (int i = 0; i < trigrams.length; i++) {
+            if (postings[i] != null) {
+                int slot = hash(trigrams[i]) & mask;
+                while (mPostings[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                mTrigrams[slot] = trigrams[i];
+                mPostings[slot] = postings[i];
+            }
+        }
+    }
+
+    private static final Comparator<Postings> POSTINGS_BY_SIZE = new Comparator<Postings>() {
+        @Override
+        public int compare(Postings postings, Postings other) {
+            int size = postings == null ? 0 : postings.size;
+            int otherSize = other == null ? 0 : other.size;
+            return size < otherSize ? -1 : (size == otherSize ? 0 : 1);
+        }
+    };
+
+    private static int hash(long trigram) {
+        int hash = (int) (trigram ^ (trigram >>> 32)) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * The entries of the names containing one trigram, in no particular order.
+     */
+    private static class Postings {
+
+        int[] entries = new int[4];
+        int size;
+
+        void add(int entry) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            entries[size++] = entry;
+        }
+
+        void remove(int entry) {
+            for (int i = 0; i < size; i++) {
+                if (entries[i] == entry) {
+                    entries[i] = entries[--size];
+                    return;
+                }
+            }
+        }
+    }
+}
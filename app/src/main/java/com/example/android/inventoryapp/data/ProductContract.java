@@ -1,14 +1,141 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.ArrayList;
+import java.util.Locale;
+
 public final class ProductContract {
 
     public static final String CONTENT_AUTHORITY = "com.example.android.inventoryapp";
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
     public static final String PATH_PRODUCTS = "products";
+    public static final String PATH_IMAGE = "image";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_IMAGES = "images";
+
+    /**
+     * {@link ContentResolver#call} method that atomically adds {@link #EXTRA_QUANTITY_DELTA} to the
+     * quantity of the product whose id is passed as the argument. The quantity never drops below
+     * zero: if it would, nothing is changed and the call returns null. Otherwise the result holds
+     * the new quantity in {@link #EXTRA_QUANTITY}.
+     */
+    public static final String METHOD_ADJUST_QUANTITY = "adjust_quantity";
+    public static final String EXTRA_QUANTITY_DELTA = "quantity_delta";
+    public static final String EXTRA_QUANTITY = "quantity";
+
+    /**
+     * {@link ContentResolver#call} method that adds the deltas in {@link #EXTRA_QUANTITY_DELTAS} to
+     * the quantities of the products in {@link #EXTRA_PRODUCT_IDS}, all in one transaction. Each
+     * delta is merged from many adjustments, so unlike {@link #METHOD_ADJUST_QUANTITY} a delta
+     * which would drop the quantity below zero is applied as far as the stock goes. The result holds
+     * the new quantities in {@link #EXTRA_QUANTITIES}, in the same order, with -1 for each product
+     * that doesn't exist, and the part of each delta which was not applied in
+     * {@link #EXTRA_UNAPPLIED_DELTAS}, 0 if all of it was.
+     */
+    public static final String METHOD_ADJUST_QUANTITIES = "adjust_quantities";
+    public static final String EXTRA_PRODUCT_IDS = "product_ids";
+    public static final String EXTRA_QUANTITY_DELTAS = "quantity_deltas";
+    public static final String EXTRA_QUANTITIES = "quantities";
+    public static final String EXTRA_UNAPPLIED_DELTAS = "unapplied_deltas";
+
+    /**
+     * {@link ContentResolver#call} method that returns the counters of the provider's query result
+     * cache: {@link #EXTRA_CACHE_HITS}, {@link #EXTRA_CACHE_MISSES} and {@link #EXTRA_CACHE_SIZE},
+     * the estimated size of the cached results in bytes.
+     */
+    public static final String METHOD_GET_QUERY_CACHE_STATS = "get_query_cache_stats";
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+    public static final String EXTRA_CACHE_SIZE = "cache_size";
+
+    /**
+     * {@link ContentResolver#call} method that filters, sorts and sums up all products in memory,
+     * without querying the database. The result holds the number of matching products in
+     * {@link #EXTRA_PRODUCT_COUNT}, and their {@link #EXTRA_TOTAL_QUANTITY} and
+     * {@link #EXTRA_TOTAL_VALUE}, the sum of price times quantity. With an
+     * {@link #EXTRA_SORT_COLUMN}, one of the columns of {@link ProductEntry#getPageUri}, it also
+     * holds the ids of the matching products in {@link #EXTRA_PRODUCT_IDS}, in the order of the
+     * pages of that column. Their rows are queried with {@link ProductEntry#getIdSelection}.
+     * <p>
+     * The filters are optional extras: {@link #EXTRA_CATEGORY}, {@link #EXTRA_MIN_PRICE},
+     * {@link #EXTRA_MAX_PRICE} and {@link #EXTRA_MAX_QUANTITY}, all inclusive. The provider reads
+     * the products into memory on the first call, so make that one off the main thread.
+     */
+    public static final String METHOD_QUERY_SNAPSHOT = "query_snapshot";
+    public static final String EXTRA_SORT_COLUMN = "sort_column";
+    public static final String EXTRA_CATEGORY = "category";
+    public static final String EXTRA_MIN_PRICE = "min_price";
+    public static final String EXTRA_MAX_PRICE = "max_price";
+    public static final String EXTRA_MAX_QUANTITY = "max_quantity";
+    public static final String EXTRA_PRODUCT_COUNT = "product_count";
+    public static final String EXTRA_TOTAL_QUANTITY = "total_quantity";
+    public static final String EXTRA_TOTAL_VALUE = "total_value";
+
+    /**
+     * {@link ContentResolver#call} method that suggests names for the text typed so far, passed as
+     * the arg. {@link #EXTRA_SUGGEST_COLUMN} is {@link ProductEntry#COLUMN_PRODUCT_NAME}, the
+     * default, or {@link ProductEntry#COLUMN_PRODUCT_SUPPLIER_NAME}. At most {@link #EXTRA_LIMIT}
+     * names are returned, and never more than 8.
+     * <p>
+     * Names are matched ignoring case, spaces and punctuation. The result holds the names which
+     * complete the text in {@link #EXTRA_SUGGESTIONS}, the names used by most products first, and
+     * the names which complete it once a typo or two are corrected in {@link #EXTRA_CORRECTIONS}.
+     * The provider reads the names into memory on the first call, so make that one off the main
+     * thread.
+     */
+    public static final String METHOD_SUGGEST_NAMES = "suggest_names";
+    public static final String EXTRA_SUGGEST_COLUMN = "suggest_column";
+    public static final String EXTRA_LIMIT = "limit";
+    public static final String EXTRA_SUGGESTIONS = "suggestions";
+    public static final String EXTRA_CORRECTIONS = "corrections";
+
+    /**
+     * {@link ContentResolver#call} method that finds the names similar to a complete name, passed
+     * as the arg, to warn about a near duplicate before it is saved. Takes the extras of
+     * {@link #METHOD_SUGGEST_NAMES} and returns the similar names in {@link #EXTRA_SIMILAR_NAMES},
+     * the most similar first. Other spellings of the name count as similar, the name itself not.
+     */
+    public static final String METHOD_FIND_SIMILAR_NAMES = "find_similar_names";
+    public static final String EXTRA_SIMILAR_NAMES = "similar_names";
+
+    /**
+     * {@link ContentResolver#call} method that rebuilds the database file, so the space freed by
+     * deleted or shrunk rows is given back to the file system. It is slow, call it off the main
+     * thread and only after large deletions.
+     */
+    public static final String METHOD_VACUUM = "vacuum";
+
+    /**
+     * Query parameters for keyset pagination of {@link ProductEntry#CONTENT_URI}, see
+     * {@link ProductEntry#getPageUri}. A page holds at most {@link #QUERY_PARAMETER_LIMIT} rows,
+     * ordered by the {@link #QUERY_PARAMETER_SORT} column and then by id, which start after the row
+     * whose sort value and id are {@link #QUERY_PARAMETER_AFTER} and {@link #QUERY_PARAMETER_AFTER_ID}.
+     * A search URI takes a {@link #QUERY_PARAMETER_LIMIT} too, see {@link ProductEntry#getSearchUri(String, int)}.
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+    public static final String QUERY_PARAMETER_SORT = "sort";
+    public static final String QUERY_PARAMETER_AFTER = "after";
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /**
+     * Query parameter to pass "false" when the returned cursor should not be notified of changes,
+     * because the caller observes the changes of single products itself.
+     */
+    public static final String QUERY_PARAMETER_NOTIFY = "notify";
+
+    /**
+     * Changes of single products are notified on the URI of the product, with the kind of change
+     * in the {@link #QUERY_PARAMETER_CHANGE} parameter, see {@link ProductEntry#getChangeUri}.
+     * Changes of many or unknown products are notified on {@link ProductEntry#CONTENT_URI} without it.
+     */
+    public static final String QUERY_PARAMETER_CHANGE = "change";
+    public static final String CHANGE_INSERT = "insert";
+    public static final String CHANGE_UPDATE = "update";
+    public static final String CHANGE_DELETE = "delete";
 
     public static abstract class ProductEntry implements BaseColumns {
 
@@ -26,6 +153,11 @@ public final class ProductContract {
 
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PRODUCTS);
 
+        /**
+         * The MIME type of the image of a single product, see {@link #getImageUri(Uri)}.
+         */
+        public static final String CONTENT_IMAGE_TYPE = "image/*";
+
         /**
          * Names for the products table
          */
@@ -37,8 +169,28 @@ public final class ProductContract {
         public static final String COLUMN_PRODUCT_QUANTITY = "quantity";
         public static final String COLUMN_PRODUCT_SUPPLIER_NAME = "supplier";
         public static final String COLUMN_PRODUCT_SUPPLIER_EMAIL = "supplier_email";
+        public static final String COLUMN_PRODUCT_IMAGE_ID = "image_id";
+
+        /**
+         * Virtual column holding the encoded image bytes. It is not stored in the products table:
+         * the provider moves the bytes into {@link ImageEntry#TABLE_NAME} on writes and joins them
+         * back in when a query asks for this column.
+         */
         public static final String COLUMN_PRODUCT_IMAGE = "image";
 
+        /**
+         * Virtual column holding a small version of the image, for lists. Like
+         * {@link #COLUMN_PRODUCT_IMAGE} it is stored in {@link ImageEntry#TABLE_NAME}. It can only be
+         * written together with the image, and is null until a thumbnail was made for the image.
+         */
+        public static final String COLUMN_PRODUCT_THUMBNAIL = "thumbnail";
+
+        /**
+         * Virtual column holding the {@link ImageEntry#COLUMN_IMAGE_ROTATION} of the image. It can
+         * only be written together with the image, and defaults to 0.
+         */
+        public static final String COLUMN_PRODUCT_IMAGE_ROTATION = "image_rotation";
+
         /**
          * Possible values for the category.
          */
@@ -53,5 +205,209 @@ public final class ProductContract {
         public static boolean isValidCategory(int category) {
             return (category == CATEGORY_UNISEX || category == CATEGORY_MALE || category == CATEGORY_FEMALE);
         }
+
+        /**
+         * Selection of the products in the category given as its argument.
+         */
+        public static final String SELECTION_CATEGORY = COLUMN_PRODUCT_CATEGORY + " = ?";
+
+        /**
+         * Selection of the products with a price between the two arguments, inclusive. Only pages
+         * sorted by {@link #COLUMN_PRODUCT_PRICE} are read from an index.
+         */
+        public static final String SELECTION_PRICE_RANGE =
+                COLUMN_PRODUCT_PRICE + " >= ? AND " + COLUMN_PRODUCT_PRICE + " <= ?";
+
+        /**
+         * Selection of the products with at most the quantity given as its argument, see
+         * {@link #LOW_STOCK_QUANTITY}. Only pages sorted by {@link #COLUMN_PRODUCT_QUANTITY} are
+         * read from an index.
+         */
+        public static final String SELECTION_LOW_STOCK = COLUMN_PRODUCT_QUANTITY + " <= ?";
+
+        /**
+         * Quantity up to which a product is low on stock.
+         */
+        public static final int LOW_STOCK_QUANTITY = 5;
+
+        /**
+         * Returns the selection of the products whose ids are its count arguments, like a page of
+         * the ids returned by {@link ProductContract#METHOD_QUERY_SNAPSHOT}. The rows come in no
+         * particular order.
+         */
+        public static String getIdSelection(int count) {
+            StringBuilder selection = new StringBuilder(TABLE_NAME).append('.').append(_ID).append(" IN (?");
+            for (int i = 1; i < count; i++) {
+                selection.append(", ?");
+            }
+            return selection.append(')').toString();
+        }
+
+        /**
+         * Returns the URI for a page of at most limit products ordered by the sort column and then
+         * by id. Pass a null afterValue for the first page, and the sort value and the id of the
+         * last row of a page to get the page which follows it. The sort column must be one of
+         * {@link #_ID}, {@link #COLUMN_PRODUCT_NAME}, {@link #COLUMN_PRODUCT_CATEGORY},
+         * {@link #COLUMN_PRODUCT_PRICE} or {@link #COLUMN_PRODUCT_QUANTITY}, and the query must not
+         * pass its own sort order. The query may pass one of the filter selections, like
+         * {@link #SELECTION_CATEGORY}; a page of every combination of them is read from an index.
+         */
+        public static Uri getPageUri(String sortColumn, int limit, String afterValue, long afterId) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SORT, sortColumn)
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit));
+            if (afterValue != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_AFTER, afterValue)
+                        .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Returns the URI a change of a single product is notified on.
+         */
+        public static Uri getChangeUri(long id, String change) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHANGE, change)
+                    .build();
+        }
+
+        /**
+         * Returns the kind of change of a single product notified on the given URI,
+         * or null if the change may affect any product.
+         */
+        public static String getChange(Uri uri) {
+            if (uri == null || uri.getPathSegments().size() != 2) {
+                return null;
+            }
+            return uri.getQueryParameter(QUERY_PARAMETER_CHANGE);
+        }
+
+        /**
+         * Returns the URI for a full-text search of the product names and supplier names. Every word
+         * of the query matches as a prefix, and the results are ranked with name matches first.
+         */
+        public static Uri getSearchUri(String query) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(query).build();
+        }
+
+        /**
+         * Returns the URI for a search like {@link #getSearchUri(String)}, which returns at most
+         * the given number of the best ranked rows.
+         */
+        public static Uri getSearchUri(String query, int limit) {
+            return getSearchUri(query).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Split a search query into the lower case words a search matches, the same way the
+         * full-text index splits the indexed names.
+         */
+        public static String[] getSearchTerms(String query) {
+            ArrayList<String> terms = new ArrayList<>();
+            if (query != null) {
+                StringBuilder term = new StringBuilder();
+                for (int i = 0; i <= query.length(); i++) {
+                    char c = i < query.length() ? query.charAt(i) : ' ';
+                    if (Character.isLetterOrDigit(c)) {
+                        term.append(c);
+                    } else if (term.length() > 0) {
+                        terms.add(term.toString().toLowerCase(Locale.ROOT));
+                        term.setLength(0);
+                    }
+                }
+            }
+            return terms.toArray(new String[terms.size()]);
+        }
+
+        /**
+         * Returns the URI of the image of the given product. The image can be read as a stream
+         * with {@link ContentResolver#openInputStream(Uri)} without loading it into a cursor.
+         */
+        public static Uri getImageUri(Uri productUri) {
+            return Uri.withAppendedPath(productUri, PATH_IMAGE);
+        }
+    }
+
+    public static abstract class SearchEntry {
+
+        /**
+         * Names for the full-text index over the product names and supplier names. It is an
+         * external content table of {@link ProductEntry#TABLE_NAME}: it only stores the index,
+         * its docid is the product id, and triggers keep it in sync with the products.
+         */
+        public static final String TABLE_NAME = "products_fts";
+        public static final String COLUMN_DOCID = "docid";
+    }
+
+    public static abstract class ImageEntry implements BaseColumns {
+
+        /**
+         * Names for the images table. Products reference a row of this table through
+         * {@link ProductEntry#COLUMN_PRODUCT_IMAGE_ID}, so the image bytes are only read
+         * when they are actually asked for.
+         */
+        public static final String TABLE_NAME = "images";
+        public final static String _ID = BaseColumns._ID;
+        public static final String COLUMN_IMAGE_DATA = "data";
+        public static final String COLUMN_IMAGE_THUMBNAIL = "thumbnail";
+        /**
+         * Hash of the image bytes, unique in the table: products with the identical image share
+         * its row. Maintained by the provider.
+         */
+        public static final String COLUMN_IMAGE_HASH = "hash";
+        /**
+         * Number of products referencing the image. Triggers keep it up to date and delete the
+         * image when it drops to zero.
+         */
+        public static final String COLUMN_IMAGE_REF_COUNT = "ref_count";
+        /**
+         * Clockwise rotation in degrees the image and its thumbnail are shown with, taken from the
+         * EXIF orientation of the imported photo. The stored pixels are never rotated, the rotation
+         * is applied while decoding them for display. Identical bytes with another rotation are
+         * stored as another image.
+         */
+        public static final String COLUMN_IMAGE_ROTATION = "rotation";
+
+        /**
+         * Virtual columns of {@link #CONTENT_URI}: the size of the image bytes, the MIME type
+         * of their format ({@link #MIME_TYPE_PNG}, {@link #MIME_TYPE_JPEG}, {@link #MIME_TYPE_WEBP},
+         * or null if the format is unknown), and the size of the thumbnail, null if there is none.
+         * The bytes themselves are only read with {@link ContentResolver#openInputStream(Uri)} on
+         * the URI of a single image.
+         */
+        public static final String COLUMN_IMAGE_SIZE = "size";
+        public static final String COLUMN_IMAGE_MIME_TYPE = "mime_type";
+        public static final String COLUMN_IMAGE_THUMBNAIL_SIZE = "thumbnail_size";
+
+        public static final String MIME_TYPE_PNG = "image/png";
+        public static final String MIME_TYPE_JPEG = "image/jpeg";
+        public static final String MIME_TYPE_WEBP = "image/webp";
+
+        /**
+         * Returns whether or not the given rotation is 0, 90, 180 or 270 degrees.
+         */
+        public static boolean isValidRotation(int rotation) {
+            return rotation == 0 || rotation == 90 || rotation == 180 || rotation == 270;
+        }
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of images.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_IMAGES;
+
+        /**
+         * The stored images. The list and the URI of a single image can be queried for the
+         * metadata and the {@link #COLUMN_IMAGE_THUMBNAIL}, e.g. for the thumbnails of a page of
+         * products in one query. The URI of a single image can be opened for reading its bytes,
+         * and updated with new {@link #COLUMN_IMAGE_DATA} to replace the image of every product
+         * that references it, or with a {@link #COLUMN_IMAGE_THUMBNAIL} for an image without one.
+         * New bytes are stored as another image, or the one already storing them, and the products
+         * are moved there: an image id never stands for other bytes, so it can key cached copies.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_IMAGES);
     }
 }
@@ -1,39 +1,423 @@
 package com.example.android.inventoryapp.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.ParcelFileDescriptor;
+import android.text.TextUtils;
 
+import com.example.android.inventoryapp.data.ProductContract.ImageEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SearchEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 
 public class ProductDbHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "inventory.db";
-    private static final int DATABASE_VERSION = 1;
+    /**
+     * Version 2 moved the product images out of the products table into {@link ImageEntry#TABLE_NAME}.
+     * Version 3 added the full-text index {@link SearchEntry#TABLE_NAME}.
+     * Version 4 added the thumbnails {@link ImageEntry#COLUMN_IMAGE_THUMBNAIL}.
+     * Version 5 stored identical images once, see {@link ImageEntry#COLUMN_IMAGE_HASH}.
+     * Version 6 added the rotation of the images {@link ImageEntry#COLUMN_IMAGE_ROTATION}.
+     * Version 7 stored the categories as integers and added the indexes of the catalog filters and
+     * sort orders, see {@link #createProductIndexes}.
+     */
+    private static final int DATABASE_VERSION = 7;
+    /**
+     * Algorithm of {@link ImageEntry#COLUMN_IMAGE_HASH}
+     */
+    private static final String IMAGE_HASH_ALGORITHM = "SHA-1";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final String IMAGE_HASH_INDEX = ImageEntry.TABLE_NAME + "_" + ImageEntry.COLUMN_IMAGE_HASH;
 
     public ProductDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // With write-ahead logging the catalog keeps reading while products are written,
+        // instead of waiting for every write transaction to finish.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // In WAL mode NORMAL only syncs at checkpoints. A power loss can drop the last commits,
+        // but never corrupts the database, and every write saves an fsync.
+        db.execSQL("PRAGMA synchronous = NORMAL;");
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
+        createImagesTable(db);
+        createProductsTable(db);
+        createSearchIndex(db);
+        createImageHashIndex(db);
+        createImageReferences(db);
+        createProductIndexes(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Every step migrates the schema by one version and keeps the existing data.
+        // SQLiteOpenHelper already runs this method inside a transaction.
+        if (oldVersion < 2) {
+            upgradeToVersion2(db);
+        }
+        if (oldVersion < 3) {
+            createSearchIndex(db);
+            db.execSQL("INSERT INTO " + SearchEntry.TABLE_NAME + "(" + SearchEntry.TABLE_NAME + ") VALUES('rebuild');");
+        }
+        if (oldVersion < 4) {
+            // The thumbnails of the existing images are generated in the background
+            db.execSQL("ALTER TABLE " + ImageEntry.TABLE_NAME + " ADD COLUMN "
+                    + ImageEntry.COLUMN_IMAGE_THUMBNAIL + " BLOB;");
+        }
+        if (oldVersion < 5) {
+            upgradeToVersion5(db);
+        }
+        if (oldVersion < 6) {
+            // The existing images are shown the way they are stored
+            db.execSQL("ALTER TABLE " + ImageEntry.TABLE_NAME + " ADD COLUMN "
+                    + ImageEntry.COLUMN_IMAGE_ROTATION + " INTEGER NOT NULL DEFAULT 0;");
+            db.execSQL("DROP INDEX " + IMAGE_HASH_INDEX + ";");
+            createImageHashIndex(db);
+        }
+        if (oldVersion < 7) {
+            upgradeToVersion7(db);
+        }
+    }
+
+    /**
+     * Return the hash the given image bytes are stored under, see {@link ImageEntry#COLUMN_IMAGE_HASH}.
+     */
+    static String hashImage(byte[] imageBytes) {
+        return toHex(newImageDigest().digest(imageBytes));
+    }
+
+    /**
+     * Return the hash of the image bytes read from the given stream.
+     */
+    static String hashImage(InputStream input) throws IOException {
+        MessageDigest digest = newImageDigest();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) != -1) {
+            digest.update(buffer, 0, count);
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newImageDigest() {
+        try {
+            return MessageDigest.getInstance(IMAGE_HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android version has SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static void createImagesTable(SQLiteDatabase db) {
+        String SQL_CREATE_IMAGES_TABLE = "CREATE TABLE " + ImageEntry.TABLE_NAME + " ("
+                + ImageEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ImageEntry.COLUMN_IMAGE_DATA + " BLOB NOT NULL, "
+                + ImageEntry.COLUMN_IMAGE_THUMBNAIL + " BLOB, "
+                + ImageEntry.COLUMN_IMAGE_HASH + " TEXT, "
+                + ImageEntry.COLUMN_IMAGE_REF_COUNT + " INTEGER NOT NULL DEFAULT 0, "
+                + ImageEntry.COLUMN_IMAGE_ROTATION + " INTEGER NOT NULL DEFAULT 0);";
+
+        db.execSQL(SQL_CREATE_IMAGES_TABLE);
+    }
+
+    private static void createProductsTable(SQLiteDatabase db) {
         String SQL_CREATE_PRODUCTS_TABLE = "CREATE TABLE " + ProductEntry.TABLE_NAME + " ("
                 + ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
                 + ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
-                + ProductEntry.COLUMN_PRODUCT_CATEGORY + " TEXT NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_CATEGORY + " INTEGER NOT NULL, "
                 + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + " TEXT NOT NULL, "
                 + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL + " TEXT NOT NULL, "
                 + ProductEntry.COLUMN_PRODUCT_PRICE + " INTEGER NOT NULL DEFAULT 0, "
-                + ProductEntry.COLUMN_PRODUCT_IMAGE + " BLOB NOT NULL, "
+                + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + " INTEGER NOT NULL, "
                 + ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER NOT NULL DEFAULT 0);";
 
         db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        String SQL_DROP_PRODUCTS_TABLE = "DROP TABLE IF EXISTS '" + ProductEntry.TABLE_NAME + "';";
-        db.execSQL(SQL_DROP_PRODUCTS_TABLE);
-        onCreate(db);
+    /**
+     * Creates the full-text index over the product names and supplier names, and the triggers
+     * which keep it in sync with the products table. Changes of other columns, like the quantity,
+     * don't touch the index.
+     */
+    private static void createSearchIndex(SQLiteDatabase db) {
+        String indexedColumns = ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME;
+        db.execSQL("CREATE VIRTUAL TABLE " + SearchEntry.TABLE_NAME + " USING fts4("
+                + "content=\"" + ProductEntry.TABLE_NAME + "\", " + indexedColumns + ");");
+        createSearchTriggers(db);
+    }
+
+    private static void createSearchTriggers(SQLiteDatabase db) {
+        String indexedColumns = ProductEntry.COLUMN_PRODUCT_NAME + ", " + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME;
+        String newValues = "new." + ProductEntry._ID + ", "
+                + "new." + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + "new." + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME;
+        String deleteOld = "DELETE FROM " + SearchEntry.TABLE_NAME
+                + " WHERE " + SearchEntry.COLUMN_DOCID + " = old." + ProductEntry._ID + ";";
+        String insertNew = "INSERT INTO " + SearchEntry.TABLE_NAME
+                + "(" + SearchEntry.COLUMN_DOCID + ", " + indexedColumns + ") VALUES(" + newValues + ");";
+
+        db.execSQL("CREATE TRIGGER " + SearchEntry.TABLE_NAME + "_before_update BEFORE UPDATE OF "
+                + indexedColumns + " ON " + ProductEntry.TABLE_NAME + " BEGIN " + deleteOld + " END;");
+        db.execSQL("CREATE TRIGGER " + SearchEntry.TABLE_NAME + "_before_delete BEFORE DELETE ON "
+                + ProductEntry.TABLE_NAME + " BEGIN " + deleteOld + " END;");
+        db.execSQL("CREATE TRIGGER " + SearchEntry.TABLE_NAME + "_after_update AFTER UPDATE OF "
+                + indexedColumns + " ON " + ProductEntry.TABLE_NAME + " BEGIN " + insertNew + " END;");
+        db.execSQL("CREATE TRIGGER " + SearchEntry.TABLE_NAME + "_after_insert AFTER INSERT ON "
+                + ProductEntry.TABLE_NAME + " BEGIN " + insertNew + " END;");
+    }
+
+    /**
+     * Creates the unique index over the image hashes and rotations, so identical images are
+     * stored once.
+     */
+    private static void createImageHashIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX " + IMAGE_HASH_INDEX + " ON " + ImageEntry.TABLE_NAME + "("
+                + ImageEntry.COLUMN_IMAGE_HASH + ", " + ImageEntry.COLUMN_IMAGE_ROTATION + ");");
+    }
+
+    /**
+     * Creates the triggers which count the products referencing each image, and delete an image
+     * once no product does anymore.
+     */
+    private static void createImageReferences(SQLiteDatabase db) {
+        createImageReferenceTriggers(db);
+        db.execSQL("CREATE TRIGGER " + ImageEntry.TABLE_NAME + "_after_release AFTER UPDATE OF "
+                + ImageEntry.COLUMN_IMAGE_REF_COUNT + " ON " + ImageEntry.TABLE_NAME
+                + " WHEN new." + ImageEntry.COLUMN_IMAGE_REF_COUNT + " <= 0"
+                + " BEGIN DELETE FROM " + ImageEntry.TABLE_NAME
+                + " WHERE " + ImageEntry._ID + " = new." + ImageEntry._ID + "; END;");
+    }
+
+    /**
+     * Creates the triggers of the products table which count the references to the images.
+     */
+    private static void createImageReferenceTriggers(SQLiteDatabase db) {
+        String increment = "UPDATE " + ImageEntry.TABLE_NAME
+                + " SET " + ImageEntry.COLUMN_IMAGE_REF_COUNT + " = " + ImageEntry.COLUMN_IMAGE_REF_COUNT + " + 1"
+                + " WHERE " + ImageEntry._ID + " = new." + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + ";";
+        String decrement = "UPDATE " + ImageEntry.TABLE_NAME
+                + " SET " + ImageEntry.COLUMN_IMAGE_REF_COUNT + " = " + ImageEntry.COLUMN_IMAGE_REF_COUNT + " - 1"
+                + " WHERE " + ImageEntry._ID + " = old." + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + ";";
+
+        db.execSQL("CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_image_after_insert AFTER INSERT ON "
+                + ProductEntry.TABLE_NAME + " BEGIN " + increment + " END;");
+        db.execSQL("CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_image_after_update AFTER UPDATE OF "
+                + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + " ON " + ProductEntry.TABLE_NAME
+                + " WHEN old." + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + " != new." + ProductEntry.COLUMN_PRODUCT_IMAGE_ID
+                + " BEGIN " + increment + " " + decrement + " END;");
+        db.execSQL("CREATE TRIGGER " + ProductEntry.TABLE_NAME + "_image_after_delete AFTER DELETE ON "
+                + ProductEntry.TABLE_NAME + " BEGIN " + decrement + " END;");
+    }
+
+    /**
+     * Creates the indexes behind the filters and sort orders of the catalog. Every filter and sort
+     * order of {@link ProductEntry#getPageUri} reads its page from one of them instead of
+     * scanning and sorting the whole table: the single column indexes serve a sort order or a range
+     * filter (the row id is part of every index, so they also serve the tie break on the id), the
+     * category indexes serve the category filter combined with each sort order. The image index
+     * serves the reference counting of the images.
+     */
+    private static void createProductIndexes(SQLiteDatabase db) {
+        createProductIndex(db, ProductEntry.COLUMN_PRODUCT_NAME);
+        createProductIndex(db, ProductEntry.COLUMN_PRODUCT_PRICE);
+        createProductIndex(db, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        createProductIndex(db, ProductEntry.COLUMN_PRODUCT_CATEGORY);
+        createProductIndex(db, ProductEntry.COLUMN_PRODUCT_CATEGORY, ProductEntry.COLUMN_PRODUCT_NAME);
+        createProductIndex(db, ProductEntry.COLUMN_PRODUCT_CATEGORY, ProductEntry.COLUMN_PRODUCT_PRICE);
+        createProductIndex(db, ProductEntry.COLUMN_PRODUCT_CATEGORY, ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        createProductIndex(db, ProductEntry.COLUMN_PRODUCT_IMAGE_ID);
+    }
+
+    private static void createProductIndex(SQLiteDatabase db, String... columns) {
+        StringBuilder name = new StringBuilder(ProductEntry.TABLE_NAME);
+        for (String column : columns) {
+            name.append('_').append(column);
+        }
+        db.execSQL("CREATE INDEX " + name + " ON " + ProductEntry.TABLE_NAME
+                + "(" + TextUtils.join(", ", columns) + ");");
+    }
+
+    /**
+     * Copies the image blobs of version 1 into the images table (reusing the product ids as image
+     * ids) and rebuilds the products table with a reference to them instead of the blob column.
+     */
+    private static void upgradeToVersion2(SQLiteDatabase db) {
+        String oldTable = ProductEntry.TABLE_NAME + "_v1";
+
+        // The images table as of version 2, the later steps add to it
+        db.execSQL("CREATE TABLE " + ImageEntry.TABLE_NAME + " ("
+                + ImageEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ImageEntry.COLUMN_IMAGE_DATA + " BLOB NOT NULL);");
+        db.execSQL("INSERT INTO " + ImageEntry.TABLE_NAME + " ("
+                + ImageEntry._ID + ", " + ImageEntry.COLUMN_IMAGE_DATA + ") "
+                + "SELECT " + ProductEntry._ID + ", " + ProductEntry.COLUMN_PRODUCT_IMAGE
+                + " FROM " + ProductEntry.TABLE_NAME + ";");
+
+        db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " RENAME TO " + oldTable + ";");
+        createProductsTable(db);
+
+        String columns = ProductEntry._ID + ", "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_CATEGORY + ", "
+                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL + ", "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY;
+        db.execSQL("INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+                + columns + ", " + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + ") "
+                + "SELECT " + columns + ", " + ProductEntry._ID + " FROM " + oldTable + ";");
+
+        // Keep the AUTOINCREMENT counter of the old table so ids of deleted products are not reused.
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + ProductEntry.TABLE_NAME + "';");
+        db.execSQL("UPDATE sqlite_sequence SET name = '" + ProductEntry.TABLE_NAME
+                + "' WHERE name = '" + oldTable + "';");
+        db.execSQL("DROP TABLE " + oldTable + ";");
+    }
+
+    /**
+     * Hashes the stored images, moves the products of images with identical bytes to one of them,
+     * and deletes the duplicates and the images no product references. From then on the
+     * reference counts are kept by triggers.
+     */
+    private static void upgradeToVersion5(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + ImageEntry.TABLE_NAME + " ADD COLUMN "
+                + ImageEntry.COLUMN_IMAGE_HASH + " TEXT;");
+        db.execSQL("ALTER TABLE " + ImageEntry.TABLE_NAME + " ADD COLUMN "
+                + ImageEntry.COLUMN_IMAGE_REF_COUNT + " INTEGER NOT NULL DEFAULT 0;");
+
+        // The ids are read up front, the loop deletes rows the cursor would otherwise page over
+        long[] imageIds;
+        Cursor cursor = db.query(ImageEntry.TABLE_NAME, new String[]{ImageEntry._ID},
+                null, null, null, null, ImageEntry._ID);
+        try {
+            imageIds = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                imageIds[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        SQLiteStatement selectImage = db.compileStatement("SELECT " + ImageEntry.COLUMN_IMAGE_DATA
+                + " FROM " + ImageEntry.TABLE_NAME + " WHERE " + ImageEntry._ID + " = ?");
+        SQLiteStatement setHash = db.compileStatement("UPDATE " + ImageEntry.TABLE_NAME
+                + " SET " + ImageEntry.COLUMN_IMAGE_HASH + " = ? WHERE " + ImageEntry._ID + " = ?");
+        SQLiteStatement moveProducts = db.compileStatement("UPDATE " + ProductEntry.TABLE_NAME
+                + " SET " + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + " = ?"
+                + " WHERE " + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + " = ?");
+        SQLiteStatement deleteImage = db.compileStatement("DELETE FROM " + ImageEntry.TABLE_NAME
+                + " WHERE " + ImageEntry._ID + " = ?");
+        try {
+            HashMap<String, Long> idsByHash = new HashMap<>();
+            for (long imageId : imageIds) {
+                String hash = hashStoredImage(selectImage, imageId);
+                Long firstId = idsByHash.get(hash);
+                if (firstId == null) {
+                    idsByHash.put(hash, imageId);
+                    setHash.bindString(1, hash);
+                    setHash.bindLong(2, imageId);
+                    setHash.executeUpdateDelete();
+                } else {
+                    moveProducts.bindLong(1, firstId);
+                    moveProducts.bindLong(2, imageId);
+                    moveProducts.executeUpdateDelete();
+                    deleteImage.bindLong(1, imageId);
+                    deleteImage.executeUpdateDelete();
+                }
+            }
+        } finally {
+            selectImage.close();
+            setHash.close();
+            moveProducts.close();
+            deleteImage.close();
+        }
+
+        db.execSQL("UPDATE " + ImageEntry.TABLE_NAME + " SET " + ImageEntry.COLUMN_IMAGE_REF_COUNT
+                + " = (SELECT count(*) FROM " + ProductEntry.TABLE_NAME
+                + " WHERE " + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + " = " + ImageEntry.TABLE_NAME + "." + ImageEntry._ID + ");");
+        db.execSQL("DELETE FROM " + ImageEntry.TABLE_NAME + " WHERE " + ImageEntry.COLUMN_IMAGE_REF_COUNT + " = 0;");
+        // The hash index as of version 5, later steps extend it
+        db.execSQL("CREATE UNIQUE INDEX " + IMAGE_HASH_INDEX + " ON " + ImageEntry.TABLE_NAME
+                + "(" + ImageEntry.COLUMN_IMAGE_HASH + ");");
+        createImageReferences(db);
+    }
+
+    /**
+     * Rebuilds the products table with an integer category column, the categories were stored as
+     * text before. The rows keep their ids, so the full-text index and the image reference counts
+     * stay valid and are not touched by the copy: the triggers are only created again afterwards.
+     */
+    private static void upgradeToVersion7(SQLiteDatabase db) {
+        String oldTable = ProductEntry.TABLE_NAME + "_v6";
+
+        // The triggers of the products table move with it and are dropped together with it
+        db.execSQL("ALTER TABLE " + ProductEntry.TABLE_NAME + " RENAME TO " + oldTable + ";");
+        createProductsTable(db);
+
+        String columns = ProductEntry._ID + ", "
+                + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", "
+                + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL + ", "
+                + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+                + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + ", "
+                + ProductEntry.COLUMN_PRODUCT_QUANTITY;
+        db.execSQL("INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+                + columns + ", " + ProductEntry.COLUMN_PRODUCT_CATEGORY + ") "
+                + "SELECT " + columns + ", CAST(" + ProductEntry.COLUMN_PRODUCT_CATEGORY + " AS INTEGER)"
+                + " FROM " + oldTable + ";");
+
+        // Keep the AUTOINCREMENT counter of the old table so ids of deleted products are not reused.
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + ProductEntry.TABLE_NAME + "';");
+        db.execSQL("UPDATE sqlite_sequence SET name = '" + ProductEntry.TABLE_NAME
+                + "' WHERE name = '" + oldTable + "';");
+        db.execSQL("DROP TABLE " + oldTable + ";");
+
+        createSearchTriggers(db);
+        createImageReferenceTriggers(db);
+        createProductIndexes(db);
+    }
+
+    /**
+     * Hash a stored image. The bytes are streamed, they can be larger than a cursor window.
+     */
+    private static String hashStoredImage(SQLiteStatement selectImage, long imageId) {
+        selectImage.bindLong(1, imageId);
+        ParcelFileDescriptor descriptor = selectImage.simpleQueryForBlobFileDescriptor();
+        InputStream input = new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
+        try {
+            return hashImage(input);
+        } catch (IOException e) {
+            throw new SQLiteException("Failed to read image " + imageId, e);
+        } finally {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,35 @@
 package com.example.android.inventoryapp.data;
 
+import android.content.ClipDescription;
+import android.content.ComponentCallbacks2;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
-import android.util.Log;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 
+import com.example.android.inventoryapp.data.ProductContract.ImageEntry;
 import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+import com.example.android.inventoryapp.data.ProductContract.SearchEntry;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 
 import static com.example.android.inventoryapp.data.ProductContract.ProductEntry.COLUMN_PRODUCT_NAME;
 import static com.example.android.inventoryapp.data.ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL;
@@ -29,6 +49,35 @@ public class ProductProvider extends ContentProvider {
      * URI matcher code for the content URI for a single product in the products table
      */
     private static final int PRODUCT_ID = 101;
+    /**
+     * URI matcher code for the content URI for the image of a single product
+     */
+    private static final int PRODUCT_IMAGE = 102;
+    /**
+     * URI matcher code for the content URI for a full-text search of the products
+     */
+    private static final int PRODUCT_SEARCH = 103;
+    /**
+     * URI matcher code for the content URI for the images table
+     */
+    private static final int IMAGES = 104;
+    /**
+     * URI matcher code for the content URI for a single image in the images table
+     */
+    private static final int IMAGE_ID = 105;
+    /**
+     * Changes of more products than this are notified as a change of all products
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 50;
+    /**
+     * Estimated size in bytes of the query results the provider keeps cached
+     */
+    private static final int QUERY_CACHE_SIZE = 512 * 1024;
+    /**
+     * How often the name indexes are read, the last time under the lock, when writes keep
+     * changing names while they are read
+     */
+    private static final int MAX_NAME_INDEX_READS = 3;
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -43,9 +92,235 @@ public class ProductProvider extends ContentProvider {
         // when a match is found.
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS, PRODUCTS);
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_PRODUCTS + "/#", PRODUCT_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/#/" + ProductContract.PATH_IMAGE, PRODUCT_IMAGE);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH + "/*", PRODUCT_SEARCH);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_IMAGES, IMAGES);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY, ProductContract.PATH_IMAGES + "/#", IMAGE_ID);
+    }
+
+    /**
+     * Products joined with their image. Only used when a query asks for
+     * {@link ProductEntry#COLUMN_PRODUCT_IMAGE} or {@link ProductEntry#COLUMN_PRODUCT_THUMBNAIL}.
+     * Blobs are stored out of line, so even then only the asked for bytes are read.
+     */
+    private static final String PRODUCTS_WITH_IMAGE_TABLES = ProductEntry.TABLE_NAME
+            + " LEFT OUTER JOIN " + ImageEntry.TABLE_NAME + " ON "
+            + qualify(ProductEntry.TABLE_NAME, ProductEntry.COLUMN_PRODUCT_IMAGE_ID) + " = "
+            + qualify(ImageEntry.TABLE_NAME, ImageEntry._ID);
+    /**
+     * Joins the full-text index to the products for searches.
+     */
+    private static final String SEARCH_JOIN = " JOIN " + SearchEntry.TABLE_NAME + " ON "
+            + qualify(ProductEntry.TABLE_NAME, ProductEntry._ID) + " = "
+            + qualify(SearchEntry.TABLE_NAME, SearchEntry.COLUMN_DOCID);
+    /**
+     * Default order of search results: names starting with the first search word come first,
+     * then the rows with the most matches in the index, then the rest by name.
+     */
+    private static final String SEARCH_RANK_ORDER = qualify(ProductEntry.TABLE_NAME, ProductEntry.COLUMN_PRODUCT_NAME)
+            + " LIKE ? DESC, length(offsets(" + SearchEntry.TABLE_NAME + ")) DESC, "
+            + qualify(ProductEntry.TABLE_NAME, ProductEntry.COLUMN_PRODUCT_NAME);
+    /**
+     * Id of a product, qualified so that it also works on the joined tables.
+     */
+    private static final String PRODUCT_ID_COLUMN = qualify(ProductEntry.TABLE_NAME, ProductEntry._ID);
+    /**
+     * Selection for a single product.
+     */
+    private static final String PRODUCT_ID_SELECTION = PRODUCT_ID_COLUMN + "=?";
+    /**
+     * Reads the image bytes of a single product.
+     */
+    private static final String SQL_SELECT_PRODUCT_IMAGE = "SELECT "
+            + qualify(ImageEntry.TABLE_NAME, ImageEntry.COLUMN_IMAGE_DATA)
+            + " FROM " + PRODUCTS_WITH_IMAGE_TABLES
+            + " WHERE " + PRODUCT_ID_SELECTION;
+    /**
+     * Reads the bytes of a single image.
+     */
+    private static final String SQL_SELECT_IMAGE = "SELECT " + ImageEntry.COLUMN_IMAGE_DATA
+            + " FROM " + ImageEntry.TABLE_NAME + " WHERE " + ImageEntry._ID + " = ?";
+    /**
+     * Tells the format of the image bytes from their signature.
+     */
+    private static final String SQL_IMAGE_MIME_TYPE = "CASE"
+            + " WHEN substr(" + ImageEntry.COLUMN_IMAGE_DATA + ", 1, 4) = X'89504E47'"
+            + " THEN '" + ImageEntry.MIME_TYPE_PNG + "'"
+            + " WHEN substr(" + ImageEntry.COLUMN_IMAGE_DATA + ", 1, 3) = X'FFD8FF'"
+            + " THEN '" + ImageEntry.MIME_TYPE_JPEG + "'"
+            + " WHEN substr(" + ImageEntry.COLUMN_IMAGE_DATA + ", 1, 4) = X'52494646'"
+            + " AND substr(" + ImageEntry.COLUMN_IMAGE_DATA + ", 9, 4) = X'57454250'"
+            + " THEN '" + ImageEntry.MIME_TYPE_WEBP + "'"
+            + " END";
+    /**
+     * Adds a delta to the quantity of a single product unless the quantity would drop below zero.
+     */
+    private static final String SQL_ADJUST_QUANTITY = "UPDATE " + ProductEntry.TABLE_NAME
+            + " SET " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " = " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ?"
+            + " WHERE " + ProductEntry._ID + " = ? AND " + ProductEntry.COLUMN_PRODUCT_QUANTITY + " + ? >= 0";
+    /**
+     * Reads the quantity of a single product.
+     */
+    private static final String SQL_SELECT_QUANTITY = "SELECT " + ProductEntry.COLUMN_PRODUCT_QUANTITY
+            + " FROM " + ProductEntry.TABLE_NAME + " WHERE " + ProductEntry._ID + " = ?";
+    /**
+     * Inserts a product, the columns are bound in this order by {@link #insertValidatedProduct}.
+     */
+    private static final String SQL_INSERT_PRODUCT = "INSERT INTO " + ProductEntry.TABLE_NAME + " ("
+            + ProductEntry.COLUMN_PRODUCT_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_CATEGORY + ", "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME + ", "
+            + ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL + ", "
+            + ProductEntry.COLUMN_PRODUCT_PRICE + ", "
+            + ProductEntry.COLUMN_PRODUCT_QUANTITY + ", "
+            + ProductEntry.COLUMN_PRODUCT_IMAGE_ID + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+    /**
+     * Inserts the bytes of an image with their hash.
+     */
+    private static final String SQL_INSERT_IMAGE = "INSERT INTO " + ImageEntry.TABLE_NAME
+            + " (" + ImageEntry.COLUMN_IMAGE_DATA + ", " + ImageEntry.COLUMN_IMAGE_THUMBNAIL + ", "
+            + ImageEntry.COLUMN_IMAGE_HASH + ", " + ImageEntry.COLUMN_IMAGE_ROTATION + ") VALUES (?, ?, ?, ?)";
+    /**
+     * Finds the image stored with the given hash and rotation.
+     */
+    private static final String SQL_SELECT_IMAGE_BY_HASH = "SELECT " + ImageEntry._ID
+            + " FROM " + ImageEntry.TABLE_NAME + " WHERE " + ImageEntry.COLUMN_IMAGE_HASH + " = ?"
+            + " AND " + ImageEntry.COLUMN_IMAGE_ROTATION + " = ?";
+    /**
+     * Finds the image stored with the given hash and the rotation of the given image.
+     */
+    private static final String SQL_SELECT_DUPLICATE_IMAGE = "SELECT " + ImageEntry._ID
+            + " FROM " + ImageEntry.TABLE_NAME + " WHERE " + ImageEntry.COLUMN_IMAGE_HASH + " = ?"
+            + " AND " + ImageEntry.COLUMN_IMAGE_ROTATION + " = (SELECT " + ImageEntry.COLUMN_IMAGE_ROTATION
+            + " FROM " + ImageEntry.TABLE_NAME + " WHERE " + ImageEntry._ID + " = ?)";
+    /**
+     * Stores new bytes as a copy of the given image with its rotation, keeping its thumbnail
+     * unless a new one is given.
+     */
+    private static final String SQL_INSERT_REPLACEMENT_IMAGE = "INSERT INTO " + ImageEntry.TABLE_NAME
+            + " (" + ImageEntry.COLUMN_IMAGE_DATA + ", " + ImageEntry.COLUMN_IMAGE_THUMBNAIL + ", "
+            + ImageEntry.COLUMN_IMAGE_HASH + ", " + ImageEntry.COLUMN_IMAGE_ROTATION + ")"
+            + " SELECT ?, ifnull(?, " + ImageEntry.COLUMN_IMAGE_THUMBNAIL + "), ?, " + ImageEntry.COLUMN_IMAGE_ROTATION
+            + " FROM " + ImageEntry.TABLE_NAME + " WHERE " + ImageEntry._ID + " = ?";
+    /**
+     * Gives an image a thumbnail unless it already has one.
+     */
+    private static final String SQL_ADD_THUMBNAIL = "UPDATE " + ImageEntry.TABLE_NAME
+            + " SET " + ImageEntry.COLUMN_IMAGE_THUMBNAIL + " = ?"
+            + " WHERE " + ImageEntry._ID + " = ? AND " + ImageEntry.COLUMN_IMAGE_THUMBNAIL + " IS NULL";
+    /**
+     * Deletes an image if no product references it, like a new image that ended up unused.
+     */
+    private static final String UNREFERENCED_IMAGE_SELECTION = ImageEntry._ID + " = ? AND "
+            + ImageEntry.COLUMN_IMAGE_REF_COUNT + " = 0";
+    /**
+     * Columns of the rows read back after a write: the columns of the {@link ProductSnapshot},
+     * which start with the id and end with the product name, then the supplier name.
+     */
+    private static final String[] IN_MEMORY_COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_CATEGORY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME
+    };
+    /**
+     * Columns a page of products can be ordered by, see {@link ProductEntry#getPageUri}, and the
+     * snapshot, see {@link ProductContract#EXTRA_SORT_COLUMN}.
+     */
+    private static final HashSet<String> sPageSortColumns = new HashSet<>(Arrays.asList(
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_CATEGORY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY));
+    /**
+     * Maps the column names of the provider contract to the columns of the products and images tables.
+     */
+    private static final HashMap<String, String> sProductsProjectionMap = new HashMap<>();
+    /**
+     * Maps the column names of {@link ImageEntry#CONTENT_URI} and of a single image to the images
+     * table. The image bytes are not part of it, they are read through {@link #openFile}. The small
+     * thumbnails can be queried, so a list can show them without keeping them in its cursor, and
+     * read the thumbnails of a page in one query.
+     */
+    private static final HashMap<String, String> sImagesProjectionMap = new HashMap<>();
+
+    static {
+        String[] productColumns = {
+                ProductEntry._ID,
+                ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductEntry.COLUMN_PRODUCT_CATEGORY,
+                ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME,
+                ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL,
+                ProductEntry.COLUMN_PRODUCT_IMAGE_ID
+        };
+        for (String column : productColumns) {
+            sProductsProjectionMap.put(column,
+                    qualify(ProductEntry.TABLE_NAME, column) + " AS " + column);
+        }
+        sProductsProjectionMap.put(ProductEntry.COLUMN_PRODUCT_IMAGE,
+                qualify(ImageEntry.TABLE_NAME, ImageEntry.COLUMN_IMAGE_DATA)
+                        + " AS " + ProductEntry.COLUMN_PRODUCT_IMAGE);
+        sProductsProjectionMap.put(ProductEntry.COLUMN_PRODUCT_THUMBNAIL,
+                qualify(ImageEntry.TABLE_NAME, ImageEntry.COLUMN_IMAGE_THUMBNAIL)
+                        + " AS " + ProductEntry.COLUMN_PRODUCT_THUMBNAIL);
+        sProductsProjectionMap.put(ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION,
+                qualify(ImageEntry.TABLE_NAME, ImageEntry.COLUMN_IMAGE_ROTATION)
+                        + " AS " + ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION);
+
+        sImagesProjectionMap.put(ImageEntry._ID, ImageEntry._ID);
+        sImagesProjectionMap.put(ImageEntry.COLUMN_IMAGE_HASH, ImageEntry.COLUMN_IMAGE_HASH);
+        sImagesProjectionMap.put(ImageEntry.COLUMN_IMAGE_REF_COUNT, ImageEntry.COLUMN_IMAGE_REF_COUNT);
+        sImagesProjectionMap.put(ImageEntry.COLUMN_IMAGE_ROTATION, ImageEntry.COLUMN_IMAGE_ROTATION);
+        sImagesProjectionMap.put(ImageEntry.COLUMN_IMAGE_SIZE,
+                "length(" + ImageEntry.COLUMN_IMAGE_DATA + ") AS " + ImageEntry.COLUMN_IMAGE_SIZE);
+        sImagesProjectionMap.put(ImageEntry.COLUMN_IMAGE_MIME_TYPE,
+                SQL_IMAGE_MIME_TYPE + " AS " + ImageEntry.COLUMN_IMAGE_MIME_TYPE);
+        sImagesProjectionMap.put(ImageEntry.COLUMN_IMAGE_THUMBNAIL_SIZE,
+                "length(" + ImageEntry.COLUMN_IMAGE_THUMBNAIL + ") AS " + ImageEntry.COLUMN_IMAGE_THUMBNAIL_SIZE);
+        sImagesProjectionMap.put(ImageEntry.COLUMN_IMAGE_THUMBNAIL, ImageEntry.COLUMN_IMAGE_THUMBNAIL);
     }
 
     private ProductDbHelper mDbHelper;
+    /**
+     * Precompiled statements for the hot paths, created when they are first needed.
+     */
+    private Statements mStatements;
+    /**
+     * Set while {@link #applyBatch(ArrayList)} runs on the current thread. It records whether any
+     * operation of the batch changed data, so listeners are notified once when the batch is done.
+     */
+    private final ThreadLocal<Boolean> mBatchChanged = new ThreadLocal<>();
+    /**
+     * Results of recent queries. Every write invalidates them before it starts and again once it
+     * is committed, so a query running concurrently with a write never caches a stale result.
+     */
+    private final QueryCache mQueryCache = new QueryCache(QUERY_CACHE_SIZE);
+    /**
+     * In-memory copy of the columns the catalog sorts, filters and sums up, read on the first
+     * {@link ProductContract#METHOD_QUERY_SNAPSHOT} call and dropped under memory pressure.
+     * Guarded by {@link #mInMemoryLock}.
+     */
+    private ProductSnapshot mSnapshot;
+    /**
+     * Suggestions for the product names and the supplier names, read on the first
+     * {@link ProductContract#METHOD_SUGGEST_NAMES} call and dropped under memory pressure.
+     * Guarded by {@link #mInMemoryLock}.
+     */
+    private NameIndex mNameIndex;
+    private NameIndex mSupplierIndex;
+    /**
+     * Number of committed writes which may have changed names, so name indexes read without the
+     * lock can tell whether they missed one. Guarded by {@link #mInMemoryLock}.
+     */
+    private long mNameWriteCount;
+    private final Object mInMemoryLock = new Object();
 
     /**
      * Initialize the provider and the database helper object.
@@ -60,32 +335,207 @@ public class ProductProvider extends ContentProvider {
         return true;
     }
 
+    /**
+     * Shut down the database helper, e.g. when the provider is used in tests.
+     */
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            if (mStatements != null) {
+                mStatements.close();
+                mStatements = null;
+            }
+        }
+        mDbHelper.close();
+    }
+
+    /**
+     * Drop the snapshot and the name suggestions when the system runs low on memory, the next
+     * call which needs them reads them again.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            synchronized (mInMemoryLock) {
+                mSnapshot = null;
+                mNameIndex = null;
+                mSupplierIndex = null;
+            }
+        }
+    }
+
+    /**
+     * Return the precompiled statements, compiling them on first use.
+     */
+    private synchronized Statements getStatements() {
+        if (mStatements == null) {
+            mStatements = new Statements(mDbHelper.getWritableDatabase());
+        }
+        return mStatements;
+    }
+
+    private static String qualify(String table, String column) {
+        return table + "." + column;
+    }
+
+    /**
+     * Returns whether the projection asks for the image or thumbnail bytes. A null projection means all columns.
+     */
+    private static boolean needsImage(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (ProductEntry.COLUMN_PRODUCT_IMAGE.equals(column)
+                    || ProductEntry.COLUMN_PRODUCT_THUMBNAIL.equals(column)
+                    || ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments, and sort order.
      */
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
-
-        // This cursor will hold the result of the query
-        Cursor cursor;
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
 
+    /**
+     * Perform the query like {@link #query(Uri, String[], String, String[], String)}. Cancelling
+     * the signal stops the query while the database runs it, then it throws
+     * {@link android.os.OperationCanceledException}.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
         // Figure out if the URI matcher can match the URI to a specific code
         int match = sUriMatcher.match(uri);
+        if (match != PRODUCTS && match != PRODUCT_ID && match != PRODUCT_SEARCH && match != IMAGES
+                && match != IMAGE_ID) {
+            throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+        }
+
+        // Identical queries are answered from the cache until the next write. Queries of all
+        // columns aren't cached, they would copy the image blobs into it.
+        Cursor cursor;
+        if (projection == null) {
+            cursor = queryDatabase(match, uri, null, selection, selectionArgs, sortOrder, cancellationSignal);
+        } else {
+            String key = QueryCache.buildKey(uri, projection, selection, selectionArgs, sortOrder);
+            long generation = mQueryCache.getGeneration();
+            cursor = mQueryCache.get(key);
+            if (cursor == null) {
+                cursor = mQueryCache.put(key, generation,
+                        queryDatabase(match, uri, projection, selection, selectionArgs, sortOrder,
+                                cancellationSignal));
+            }
+        }
+
+        if (!"false".equals(uri.getQueryParameter(ProductContract.QUERY_PARAMETER_NOTIFY))) {
+            // Listeners of this URI are notified when the result of the query may have changed.
+            // A search result depends on every product.
+            Uri notificationUri = match == PRODUCT_SEARCH ? ProductEntry.CONTENT_URI : uri;
+            cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+        }
+        return cursor;
+    }
+
+    /**
+     * Run the query for the given URI match against the database.
+     */
+    private Cursor queryDatabase(int match, Uri uri, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder,
+                                 CancellationSignal cancellationSignal) {
+        SqlQuery query = buildQuery(match, uri, projection, selection, selectionArgs, sortOrder);
+        return mDbHelper.getReadableDatabase().rawQuery(query.sql, query.args, cancellationSignal);
+    }
+
+    /**
+     * Return how the database runs the query for the given URI, one line per step of the plan
+     * of EXPLAIN QUERY PLAN. For tests and for checking that a query is served by an index.
+     */
+    ArrayList<String> explainQueryPlan(Uri uri, String[] projection, String selection,
+                                       String[] selectionArgs, String sortOrder) {
+        SqlQuery query = buildQuery(sUriMatcher.match(uri), uri, projection, selection, selectionArgs, sortOrder);
+        Cursor cursor = mDbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.args);
+        ArrayList<String> plan = new ArrayList<>();
+        try {
+            int detailColumn = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.add(cursor.getString(detailColumn));
+            }
+        } finally {
+            cursor.close();
+        }
+        return plan;
+    }
+
+    /**
+     * An SQL query and its arguments.
+     */
+    private static class SqlQuery {
+        final String sql;
+        final String[] args;
+
+        SqlQuery(String sql, String[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Build the SQL query for the given URI match.
+     */
+    private static SqlQuery buildQuery(int match, Uri uri, String[] projection, String selection,
+                                       String[] selectionArgs, String sortOrder) {
+        // The images are only joined in when they are asked for
+        SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
+        queryBuilder.setTables(needsImage(projection) ? PRODUCTS_WITH_IMAGE_TABLES : ProductEntry.TABLE_NAME);
+        queryBuilder.setProjectionMap(sProductsProjectionMap);
+
+        // At most this many rows, null for all of them
+        String limit = null;
+
         switch (match) {
             case PRODUCTS:
                 // For the PRODUCTS code, query the products table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the products table.
-                cursor = database.query(ProductEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder);
+                limit = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_LIMIT);
+                if (limit != null) {
+                    // A page of products, which starts after the key passed in the URI
+                    if (sortOrder != null) {
+                        throw new IllegalArgumentException("A page is ordered by its sort parameter: " + uri);
+                    }
+                    String sortColumn = getPageSortColumn(uri);
+                    String afterValue = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_AFTER);
+                    if (afterValue != null) {
+                        String afterId = String.valueOf(Long.parseLong(
+                                uri.getQueryParameter(ProductContract.QUERY_PARAMETER_AFTER_ID)));
+                        String keySelection;
+                        String[] keyArgs;
+                        if (sortColumn.equals(PRODUCT_ID_COLUMN)) {
+                            keySelection = PRODUCT_ID_COLUMN + " > ?";
+                            keyArgs = new String[]{afterId};
+                        } else {
+                            // Same as (sort, id) > (after, afterId), written so the sort column
+                            // can be looked up as a range
+                            keySelection = sortColumn + " >= ? AND (" + sortColumn + " > ? OR "
+                                    + PRODUCT_ID_COLUMN + " > ?)";
+                            keyArgs = new String[]{afterValue, afterValue, afterId};
+                        }
+                        selection = selection == null ? keySelection : "(" + selection + ") AND " + keySelection;
+                        selectionArgs = concat(selectionArgs == null ? new String[0] : selectionArgs, keyArgs);
+                    }
+                    sortOrder = sortColumn.equals(PRODUCT_ID_COLUMN)
+                            ? PRODUCT_ID_COLUMN : sortColumn + ", " + PRODUCT_ID_COLUMN;
+                    limit = String.valueOf(Integer.parseInt(limit));
+                }
                 break;
             case PRODUCT_ID:
                 // For the PRODUCT_ID code, extract out the ID from the URI.
@@ -96,19 +546,90 @@ public class ProductProvider extends ContentProvider {
                 // For every "?" in the selection, we need to have an element in the selection
                 // arguments that will fill in the "?". Since we have 1 question mark in the
                 // selection, we have 1 String in the selection arguments' String array.
-                selection = ProductEntry._ID + "=?";
+                selection = PRODUCT_ID_SELECTION;
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
 
                 // This will perform a query on the products table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(ProductEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                break;
+            case PRODUCT_SEARCH:
+                // For the PRODUCT_SEARCH code, join the products with the full-text index and keep
+                // the rows where every word of the query is a prefix of a word of the name or
+                // the supplier name. The caller's selection further narrows the result.
+                String[] terms = ProductEntry.getSearchTerms(uri.getLastPathSegment());
+                if (terms.length == 0) {
+                    selection = "0";
+                    selectionArgs = null;
+                } else {
+                    queryBuilder.setTables(queryBuilder.getTables() + SEARCH_JOIN);
+                    selection = SearchEntry.TABLE_NAME + " MATCH ?"
+                            + (selection == null ? "" : " AND (" + selection + ")");
+                    selectionArgs = concat(new String[]{buildMatchQuery(terms)}, selectionArgs);
+                    if (sortOrder == null) {
+                        // The argument of the ranking comes after the ones of the selection
+                        sortOrder = SEARCH_RANK_ORDER;
+                        selectionArgs = concat(selectionArgs, new String[]{terms[0] + "%"});
+                    }
+                }
+                limit = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_LIMIT);
+                if (limit != null) {
+                    limit = String.valueOf(Integer.parseInt(limit));
+                }
+                break;
+            case IMAGES:
+                // For the IMAGES code, query the sizes, formats and thumbnails of the stored images
+                queryBuilder.setTables(ImageEntry.TABLE_NAME);
+                queryBuilder.setProjectionMap(sImagesProjectionMap);
+                break;
+            case IMAGE_ID:
+                // The metadata and thumbnail of a single image, its bytes are read through openFile
+                queryBuilder.setTables(ImageEntry.TABLE_NAME);
+                queryBuilder.setProjectionMap(sImagesProjectionMap);
+                queryBuilder.appendWhere(ImageEntry._ID + "=" + ContentUris.parseId(uri));
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
-        return cursor;
+        return new SqlQuery(queryBuilder.buildQuery(projection, selection, null, null, sortOrder, limit),
+                selectionArgs);
+    }
+
+    /**
+     * Return the qualified column a page of products is ordered by.
+     */
+    private static String getPageSortColumn(Uri uri) {
+        String sortColumn = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_SORT);
+        if (sortColumn == null) {
+            sortColumn = ProductEntry._ID;
+        }
+        if (!sPageSortColumns.contains(sortColumn)) {
+            throw new IllegalArgumentException("Cannot sort a page by " + sortColumn);
+        }
+        return qualify(ProductEntry.TABLE_NAME, sortColumn);
+    }
+
+    /**
+     * Build a full-text MATCH expression which requires every term as a word prefix.
+     */
+    private static String buildMatchQuery(String[] terms) {
+        StringBuilder matchQuery = new StringBuilder();
+        for (String term : terms) {
+            if (matchQuery.length() > 0) {
+                matchQuery.append(' ');
+            }
+            matchQuery.append(term).append('*');
+        }
+        return matchQuery.toString();
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        if (second == null || second.length == 0) {
+            return first;
+        }
+        String[] result = new String[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
     }
 
     /**
@@ -127,9 +648,118 @@ public class ProductProvider extends ContentProvider {
 
     /**
      * Insert a product into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * for that specific row in the database. Throw an {@link SQLException} if the row could not be
+     * inserted, which also fails a batch the insertion is part of.
      */
     private Uri insertProduct(Uri uri, ContentValues values) {
+        validateNewProduct(values);
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long id;
+        mQueryCache.beginWrite();
+        database.beginTransaction();
+        try {
+            id = insertValidatedProduct(values);
+            // Once we know the ID of the new row in the table,
+            // return the new URI with the ID appended to the end of it
+            if (id == -1) {
+                throw new SQLException("Failed to insert row for " + uri);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mQueryCache.endWrite();
+        }
+
+        updateInMemoryCopies(new long[]{id}, true);
+        notifyChange(ProductEntry.getChangeUri(id, ProductContract.CHANGE_INSERT));
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Insert all the given products in a single transaction and notify listeners once.
+     * Every row is validated before anything is written, so either all products are inserted or none.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (sUriMatcher.match(uri) != PRODUCTS) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+
+        for (ContentValues productValues : values) {
+            validateNewProduct(productValues);
+        }
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        // The in-memory copies are only patched for a few rows, they are read again after larger inserts
+        long[] ids = values.length <= MAX_ROW_NOTIFICATIONS ? new long[values.length] : null;
+        mQueryCache.beginWrite();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < values.length; i++) {
+                long id = insertValidatedProduct(values[i]);
+                if (id == -1) {
+                    throw new SQLException("Failed to insert row for " + uri);
+                }
+                if (ids != null) {
+                    ids[i] = id;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mQueryCache.endWrite();
+        }
+
+        if (values.length > 0) {
+            updateInMemoryCopies(ids, true);
+            notifyChange(uri);
+        }
+        return values.length;
+    }
+
+    /**
+     * Apply all the operations in a single transaction and notify listeners once at the end.
+     * The operations go through {@link #insert}, {@link #update} and {@link #delete}, so they are
+     * validated exactly like single calls. An operation which fails throws instead of returning
+     * nothing, which rolls back the whole batch and reaches the caller.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        ContentProviderResult[] results;
+        mBatchChanged.set(false);
+        boolean changed;
+        mQueryCache.beginWrite();
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            changed = mBatchChanged.get();
+            mBatchChanged.remove();
+            mQueryCache.endWrite();
+        }
+
+        if (changed) {
+            updateInMemoryCopies(null, true);
+            getContext().getContentResolver().notifyChange(ProductEntry.CONTENT_URI, null);
+        }
+        return results;
+    }
+
+    /**
+     * Throw an {@link IllegalArgumentException} if the given values don't describe a complete, valid product.
+     */
+    private static void validateNewProduct(ContentValues values) {
         String name = values.getAsString(COLUMN_PRODUCT_NAME);
         if (name == null) {
             throw new IllegalArgumentException("Product requires a name");
@@ -165,19 +795,65 @@ public class ProductProvider extends ContentProvider {
             throw new IllegalArgumentException("Invalid image");
         }
 
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        // The thumbnail is optional, but if it is there it must be bytes
+        if (values.get(ProductEntry.COLUMN_PRODUCT_THUMBNAIL) != null
+                && values.getAsByteArray(ProductEntry.COLUMN_PRODUCT_THUMBNAIL) == null) {
+            throw new IllegalArgumentException("Invalid thumbnail");
+        }
 
-        long id = database.insert(ProductEntry.TABLE_NAME, null, values);
-        // Once we know the ID of the new row in the table,
-        // return the new URI with the ID appended to the end of it
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        validateImageRotation(values);
+
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_ID)) {
+            throw new IllegalArgumentException("The image reference is managed by the provider");
         }
+    }
 
-        getContext().getContentResolver().notifyChange(uri, null);
-        return ContentUris.withAppendedId(uri, id);
+    /**
+     * Throw an {@link IllegalArgumentException} if the values have an invalid image rotation.
+     */
+    private static void validateImageRotation(ContentValues values) {
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION)) {
+            Integer rotation = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION);
+            if (rotation == null || !ImageEntry.isValidRotation(rotation)) {
+                throw new IllegalArgumentException("Invalid image rotation");
+            }
+        }
+    }
+
+    /**
+     * Return the image rotation in the values, 0 if there is none.
+     */
+    private static int getImageRotation(ContentValues values) {
+        Integer rotation = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION);
+        return rotation == null ? 0 : rotation;
+    }
+
+    /**
+     * Insert a product that already passed {@link #validateNewProduct(ContentValues)} together with
+     * its image. Must be called inside a transaction. Return the id of the new row, or -1 on failure.
+     */
+    private long insertValidatedProduct(ContentValues values) {
+        // The image goes into its own table, the product only keeps a reference to it
+        long imageId = insertImage(values.getAsByteArray(ProductEntry.COLUMN_PRODUCT_IMAGE),
+                values.getAsByteArray(ProductEntry.COLUMN_PRODUCT_THUMBNAIL), getImageRotation(values));
+        if (imageId == -1) {
+            return -1;
+        }
+
+        Integer price = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_PRICE);
+        Integer quantity = values.getAsInteger(ProductEntry.COLUMN_PRODUCT_QUANTITY);
+
+        SQLiteStatement insert = getStatements().insertProduct;
+        synchronized (insert) {
+            insert.bindString(1, values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME));
+            insert.bindLong(2, values.getAsInteger(ProductEntry.COLUMN_PRODUCT_CATEGORY));
+            insert.bindString(3, values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+            insert.bindString(4, values.getAsString(ProductEntry.COLUMN_PRODUCT_SUPPLIER_EMAIL));
+            insert.bindLong(5, price == null ? 0 : price);
+            insert.bindLong(6, quantity == null ? 0 : quantity);
+            insert.bindLong(7, imageId);
+            return insert.executeInsert();
+        }
     }
 
     /**
@@ -196,6 +872,8 @@ public class ProductProvider extends ContentProvider {
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
                 return updateProduct(uri, contentValues, selection, selectionArgs);
+            case IMAGE_ID:
+                return updateImage(uri, contentValues);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -204,7 +882,8 @@ public class ProductProvider extends ContentProvider {
     /**
      * Update products in the database with the given content values. Apply the changes to the rows
      * specified in the selection and selection arguments (which could be 0 or 1 or more products).
-     * Return the number of rows that were successfully updated.
+     * Return the number of rows that were successfully updated. Throw an {@link SQLException} if
+     * the new image could not be stored, which also fails a batch the update is part of.
      */
     private int updateProduct(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         // If there are no values to update, then don't try to update the database
@@ -212,6 +891,66 @@ public class ProductProvider extends ContentProvider {
             return 0;
         }
 
+        validateProductUpdate(values);
+        byte[] image_bytes = values.getAsByteArray(ProductEntry.COLUMN_PRODUCT_IMAGE);
+
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int updateCount;
+        long[] ids;
+        long imageId = -1;
+        mQueryCache.beginWrite();
+        database.beginTransaction();
+        try {
+            ids = queryIds(database, selection, selectionArgs);
+            ContentValues productValues = values;
+            if (image_bytes != null) {
+                // Store the new image and point the updated products to it
+                productValues = new ContentValues(values);
+                productValues.remove(ProductEntry.COLUMN_PRODUCT_IMAGE);
+                productValues.remove(ProductEntry.COLUMN_PRODUCT_THUMBNAIL);
+                productValues.remove(ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION);
+                imageId = insertImage(image_bytes,
+                        values.getAsByteArray(ProductEntry.COLUMN_PRODUCT_THUMBNAIL), getImageRotation(values));
+                if (imageId == -1) {
+                    throw new SQLException("Failed to insert image for " + uri);
+                }
+                productValues.put(ProductEntry.COLUMN_PRODUCT_IMAGE_ID, imageId);
+            }
+
+            updateCount = database.update(
+                    ProductEntry.TABLE_NAME,
+                    productValues,
+                    selection,
+                    selectionArgs);
+
+            if (imageId != -1) {
+                // The replaced images are deleted by the triggers once unreferenced. The new one is
+                // only kept if the selection matched a product.
+                database.delete(ImageEntry.TABLE_NAME, UNREFERENCED_IMAGE_SELECTION,
+                        new String[]{String.valueOf(imageId)});
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mQueryCache.endWrite();
+        }
+
+        if (updateCount > 0) {
+            updateInMemoryCopies(ids, values.containsKey(ProductEntry.COLUMN_PRODUCT_NAME)
+                    || values.containsKey(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME));
+            notifyRowChanges(ids, ProductContract.CHANGE_UPDATE);
+        }
+
+        return updateCount;
+    }
+
+    /**
+     * Throw an {@link IllegalArgumentException} if any of the given values is not valid for a product.
+     * Only the columns present in the values are checked.
+     */
+    private static void validateProductUpdate(ContentValues values) {
         if (values.containsKey(COLUMN_PRODUCT_NAME)) {
             String name = values.getAsString(ProductEntry.COLUMN_PRODUCT_NAME);
             if (name == null) {
@@ -261,52 +1000,767 @@ public class ProductProvider extends ContentProvider {
             }
         }
 
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_THUMBNAIL)) {
+            if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE)) {
+                throw new IllegalArgumentException("A thumbnail can only be updated together with its image");
+            }
+            if (values.get(ProductEntry.COLUMN_PRODUCT_THUMBNAIL) != null
+                    && values.getAsByteArray(ProductEntry.COLUMN_PRODUCT_THUMBNAIL) == null) {
+                throw new IllegalArgumentException("Invalid thumbnail");
+            }
+        }
+
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_ROTATION)) {
+            if (!values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE)) {
+                throw new IllegalArgumentException("A rotation can only be updated together with its image");
+            }
+            validateImageRotation(values);
+        }
+
+        if (values.containsKey(ProductEntry.COLUMN_PRODUCT_IMAGE_ID)) {
+            throw new IllegalArgumentException("The image reference is managed by the provider");
+        }
+    }
+
+    /**
+     * Replace the bytes of a single image, e.g. with a smaller encoding of the same picture, or give
+     * it a thumbnail. Changed bytes are never written over the stored ones: they are stored as
+     * another image with the rotation and, unless a new one is given, the thumbnail of this one,
+     * or the image already storing them is used, and the products referencing this image are moved
+     * there. The triggers then delete this image, so an image id always stands for the same
+     * picture and may key the caches of the decoded images. A thumbnail is only added to an image
+     * without one. Return the number of images that were updated.
+     */
+    private int updateImage(Uri uri, ContentValues values) {
+        byte[] imageBytes = null;
+        byte[] thumbnailBytes = null;
+        if (values.containsKey(ImageEntry.COLUMN_IMAGE_DATA)) {
+            imageBytes = values.getAsByteArray(ImageEntry.COLUMN_IMAGE_DATA);
+            if (imageBytes == null) {
+                throw new IllegalArgumentException("Invalid image");
+            }
+        }
+        if (values.containsKey(ImageEntry.COLUMN_IMAGE_THUMBNAIL)) {
+            thumbnailBytes = values.getAsByteArray(ImageEntry.COLUMN_IMAGE_THUMBNAIL);
+            if (thumbnailBytes == null) {
+                throw new IllegalArgumentException("Invalid thumbnail");
+            }
+        }
+        int updatedColumns = (imageBytes == null ? 0 : 1) + (thumbnailBytes == null ? 0 : 1);
+        if (updatedColumns == 0 || updatedColumns != values.size()) {
+            throw new IllegalArgumentException("Only the data and the thumbnail of an image can be updated");
+        }
+
+        long imageId = ContentUris.parseId(uri);
+        String[] imageIdArgs = new String[]{String.valueOf(imageId)};
+
         // Get writable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
-        int updateCount = database.update(
-                ProductEntry.TABLE_NAME,
-                values,
-                selection,
-                selectionArgs);
+        int updateCount = 0;
+        boolean productsMoved = false;
+        mQueryCache.beginWrite();
+        database.beginTransaction();
+        try {
+            long newImageId = imageId;
+            boolean inserted = false;
+            if (imageBytes != null) {
+                String hash = ProductDbHelper.hashImage(imageBytes);
+                newImageId = findDuplicateImage(database, hash, imageId);
+                if (newImageId == -1) {
+                    newImageId = insertReplacementImage(database, imageId, imageBytes, thumbnailBytes, hash);
+                    inserted = newImageId != -1;
+                } else if (newImageId != imageId && thumbnailBytes != null) {
+                    addThumbnail(newImageId, thumbnailBytes);
+                }
+            }
 
-        if (updateCount > 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (newImageId == imageId) {
+                // The same picture, only a missing thumbnail can be added
+                if (thumbnailBytes != null) {
+                    updateCount = addThumbnail(imageId, thumbnailBytes);
+                }
+            } else if (newImageId != -1) {
+                // The triggers delete this image once the last product moved away from it
+                ContentValues productValues = new ContentValues();
+                productValues.put(ProductEntry.COLUMN_PRODUCT_IMAGE_ID, newImageId);
+                int movedCount = database.update(ProductEntry.TABLE_NAME, productValues,
+                        ProductEntry.COLUMN_PRODUCT_IMAGE_ID + "=?", imageIdArgs);
+                productsMoved = movedCount > 0;
+                updateCount = productsMoved ? 1 : 0;
+                if (inserted && !productsMoved) {
+                    database.delete(ImageEntry.TABLE_NAME, ImageEntry._ID + "=?",
+                            new String[]{String.valueOf(newImageId)});
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mQueryCache.endWrite();
         }
 
+        if (productsMoved) {
+            notifyChange(ProductEntry.CONTENT_URI);
+        }
+        if (updateCount > 0) {
+            notifyChange(uri);
+        }
         return updateCount;
     }
 
+    /**
+     * Store the image bytes as a new image with the rotation of the given image, and the given
+     * thumbnail or, if that is null, the thumbnail of the given image. Return the id of the new
+     * image, or -1 if the given image does not exist.
+     */
+    private static long insertReplacementImage(SQLiteDatabase database, long imageId, byte[] imageBytes,
+                                               byte[] thumbnailBytes, String hash) {
+        SQLiteStatement insert = database.compileStatement(SQL_INSERT_REPLACEMENT_IMAGE);
+        try {
+            insert.bindBlob(1, imageBytes);
+            if (thumbnailBytes == null) {
+                insert.bindNull(2);
+            } else {
+                insert.bindBlob(2, thumbnailBytes);
+            }
+            insert.bindString(3, hash);
+            insert.bindLong(4, imageId);
+            return insert.executeInsert();
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Return the id of the image stored with the given bytes, thumbnail, which may be null, and
+     * rotation. Identical bytes with the same rotation are only stored once: if they are stored
+     * already, their image is returned and gets the thumbnail if it has none. Must be called inside
+     * a transaction, a new image is deleted again when no product references it.
+     * Return -1 if the insertion failed.
+     */
+    private long insertImage(byte[] imageBytes, byte[] thumbnailBytes, int rotation) {
+        String hash = ProductDbHelper.hashImage(imageBytes);
+        long imageId = findImage(hash, rotation);
+        if (imageId != -1) {
+            if (thumbnailBytes != null) {
+                addThumbnail(imageId, thumbnailBytes);
+            }
+            return imageId;
+        }
+
+        SQLiteStatement insert = getStatements().insertImage;
+        synchronized (insert) {
+            insert.bindBlob(1, imageBytes);
+            if (thumbnailBytes == null) {
+                insert.bindNull(2);
+            } else {
+                insert.bindBlob(2, thumbnailBytes);
+            }
+            insert.bindString(3, hash);
+            insert.bindLong(4, rotation);
+            return insert.executeInsert();
+        }
+    }
+
+    /**
+     * Return the id of the image stored with the given hash and rotation, or -1 if there is none.
+     */
+    private long findImage(String hash, int rotation) {
+        SQLiteStatement select = getStatements().selectImageByHash;
+        synchronized (select) {
+            try {
+                select.bindString(1, hash);
+                select.bindLong(2, rotation);
+                return select.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Return the id of an image stored with the given hash and the same rotation as the given image,
+     * which may be that image itself, or -1 if there is none.
+     */
+    private static long findDuplicateImage(SQLiteDatabase database, String hash, long imageId) {
+        try {
+            return DatabaseUtils.longForQuery(database, SQL_SELECT_DUPLICATE_IMAGE,
+                    new String[]{hash, String.valueOf(imageId)});
+        } catch (SQLiteDoneException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Give the image the thumbnail unless it already has one. Return 1 if it got the thumbnail,
+     * otherwise 0.
+     */
+    private int addThumbnail(long imageId, byte[] thumbnailBytes) {
+        SQLiteStatement update = getStatements().addThumbnail;
+        synchronized (update) {
+            update.bindBlob(1, thumbnailBytes);
+            update.bindLong(2, imageId);
+            return update.executeUpdateDelete();
+        }
+    }
+
     /**
      * Delete the data at the given selection and selection arguments.
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                int delCount = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
                 // Delete all rows that match the selection and selection args
-                if (delCount > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
-                }
-                return delCount;
+                return deleteProducts(uri, selection, selectionArgs);
             case PRODUCT_ID:
                 // Delete a single row given by the ID in the URI
                 selection = ProductEntry._ID + "=?";
                 selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                delCount = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
-                if (delCount > 0) {
-                    getContext().getContentResolver().notifyChange(uri, null);
-                }
-                return delCount;
+                return deleteProducts(uri, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
     }
 
+    /**
+     * Delete the products matching the selection together with the images only they referenced.
+     * Return the number of products that were deleted.
+     */
+    private int deleteProducts(Uri uri, String selection, String[] selectionArgs) {
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int delCount;
+        long[] ids;
+        mQueryCache.beginWrite();
+        database.beginTransaction();
+        try {
+            ids = queryIds(database, selection, selectionArgs);
+            // The triggers delete the images no other product references
+            delCount = database.delete(ProductEntry.TABLE_NAME, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mQueryCache.endWrite();
+        }
+
+        if (delCount > 0) {
+            updateInMemoryCopies(ids, true);
+            notifyRowChanges(ids, ProductContract.CHANGE_DELETE);
+        }
+        return delCount;
+    }
+
+    /**
+     * Open the image of a single product for reading. The bytes are handed over as a file
+     * descriptor, so callers can decode them straight from a stream without copying the whole
+     * image through a cursor window and onto their heap first.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        SQLiteStatement select;
+        switch (sUriMatcher.match(uri)) {
+            case PRODUCT_IMAGE:
+                select = getStatements().selectProductImage;
+                break;
+            case IMAGE_ID:
+                select = getStatements().selectImage;
+                break;
+            default:
+                throw new FileNotFoundException("No files supported for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Images are opened read-only, cannot open " + uri + " with mode " + mode);
+        }
+
+        // The id of the product or of the image
+        long id = Long.parseLong(uri.getPathSegments().get(1));
+
+        ParcelFileDescriptor descriptor;
+        synchronized (select) {
+            try {
+                select.bindLong(1, id);
+                descriptor = select.simpleQueryForBlobFileDescriptor();
+            } catch (SQLiteDoneException e) {
+                throw new FileNotFoundException("Nothing found for " + uri);
+            }
+        }
+        if (descriptor == null) {
+            throw new FileNotFoundException("No image for " + uri);
+        }
+        return descriptor;
+    }
+
+    /**
+     * Returns the MIME types the content URI can be opened as with openTypedAssetFile.
+     */
+    @Override
+    public String[] getStreamTypes(Uri uri, String mimeTypeFilter) {
+        int match = sUriMatcher.match(uri);
+        if ((match == PRODUCT_IMAGE || match == IMAGE_ID)
+                && ClipDescription.compareMimeTypes(ProductEntry.CONTENT_IMAGE_TYPE, mimeTypeFilter)) {
+            return new String[]{ProductEntry.CONTENT_IMAGE_TYPE};
+        }
+        return null;
+    }
+
+    /**
+     * Handle the provider specific methods of {@link ProductContract}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (ProductContract.METHOD_ADJUST_QUANTITY.equals(method)) {
+            if (arg == null || extras == null) {
+                throw new IllegalArgumentException("Adjusting the quantity requires a product id and a delta");
+            }
+            return adjustQuantity(Long.parseLong(arg), extras.getInt(ProductContract.EXTRA_QUANTITY_DELTA));
+        }
+        if (ProductContract.METHOD_ADJUST_QUANTITIES.equals(method)) {
+            long[] ids = extras == null ? null : extras.getLongArray(ProductContract.EXTRA_PRODUCT_IDS);
+            int[] deltas = extras == null ? null : extras.getIntArray(ProductContract.EXTRA_QUANTITY_DELTAS);
+            if (ids == null || deltas == null || ids.length != deltas.length) {
+                throw new IllegalArgumentException("Adjusting quantities requires a delta for each product id");
+            }
+            return adjustQuantities(ids, deltas);
+        }
+        if (ProductContract.METHOD_VACUUM.equals(method)) {
+            // VACUUM can't run inside a transaction, and rewrites the file without changing any row
+            mDbHelper.getWritableDatabase().execSQL("VACUUM");
+            return null;
+        }
+        if (ProductContract.METHOD_QUERY_SNAPSHOT.equals(method)) {
+            return querySnapshot(extras == null ? Bundle.EMPTY : extras);
+        }
+        if (ProductContract.METHOD_SUGGEST_NAMES.equals(method)
+                || ProductContract.METHOD_FIND_SIMILAR_NAMES.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("Suggesting names requires the typed text");
+            }
+            return suggestNames(method, arg, extras == null ? Bundle.EMPTY : extras);
+        }
+        if (ProductContract.METHOD_GET_QUERY_CACHE_STATS.equals(method)) {
+            Bundle result = new Bundle();
+            result.putLong(ProductContract.EXTRA_CACHE_HITS, mQueryCache.getHitCount());
+            result.putLong(ProductContract.EXTRA_CACHE_MISSES, mQueryCache.getMissCount());
+            result.putInt(ProductContract.EXTRA_CACHE_SIZE, mQueryCache.getSize());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Filter and sum up the products in the snapshot, and sort them if a sort column is passed,
+     * reading the snapshot first if there is none.
+     */
+    private Bundle querySnapshot(Bundle extras) {
+        int category = extras.getInt(ProductContract.EXTRA_CATEGORY, ProductSnapshot.ANY_CATEGORY);
+        int minPrice = extras.getInt(ProductContract.EXTRA_MIN_PRICE, Integer.MIN_VALUE);
+        int maxPrice = extras.getInt(ProductContract.EXTRA_MAX_PRICE, Integer.MAX_VALUE);
+        int maxQuantity = extras.getInt(ProductContract.EXTRA_MAX_QUANTITY, Integer.MAX_VALUE);
+        String sortColumn = extras.getString(ProductContract.EXTRA_SORT_COLUMN);
+        if (sortColumn != null && !sPageSortColumns.contains(sortColumn)) {
+            throw new IllegalArgumentException("Cannot sort the snapshot by " + sortColumn);
+        }
+
+        ProductSnapshot.Totals totals;
+        long[] ids = null;
+        synchronized (mInMemoryLock) {
+            if (mSnapshot == null) {
+                mSnapshot = readSnapshot();
+            }
+            totals = mSnapshot.total(category, minPrice, maxPrice, maxQuantity);
+            if (sortColumn != null) {
+                ids = mSnapshot.select(category, minPrice, maxPrice, maxQuantity, sortColumn);
+            }
+        }
+
+        Bundle result = new Bundle();
+        if (ids != null) {
+            result.putLongArray(ProductContract.EXTRA_PRODUCT_IDS, ids);
+        }
+        result.putInt(ProductContract.EXTRA_PRODUCT_COUNT, totals.count);
+        result.putLong(ProductContract.EXTRA_TOTAL_QUANTITY, totals.totalQuantity);
+        result.putLong(ProductContract.EXTRA_TOTAL_VALUE, totals.totalValue);
+        return result;
+    }
+
+    /**
+     * Read a snapshot of all products from the database.
+     */
+    private ProductSnapshot readSnapshot() {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ProductEntry.TABLE_NAME,
+                ProductSnapshot.COLUMNS, null, null, null, null, ProductEntry._ID);
+        try {
+            return ProductSnapshot.read(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Suggest names for the typed text from the name index of the requested column, reading the
+     * name indexes first if there are none.
+     *
+     * @param method {@link ProductContract#METHOD_SUGGEST_NAMES} or
+     *               {@link ProductContract#METHOD_FIND_SIMILAR_NAMES}
+     */
+    private Bundle suggestNames(String method, String text, Bundle extras) {
+        String column = extras.getString(ProductContract.EXTRA_SUGGEST_COLUMN, ProductEntry.COLUMN_PRODUCT_NAME);
+        if (!column.equals(ProductEntry.COLUMN_PRODUCT_NAME) && !column.equals(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME)) {
+            throw new IllegalArgumentException("Cannot suggest names for " + column);
+        }
+        int limit = Math.min(extras.getInt(ProductContract.EXTRA_LIMIT, NameIndex.MAX_SUGGESTIONS),
+                NameIndex.MAX_SUGGESTIONS);
+
+        loadNameIndexes();
+        Bundle result = new Bundle();
+        synchronized (mInMemoryLock) {
+            if (mNameIndex == null) {
+                // Dropped again under memory pressure
+                loadNameIndexesLocked();
+            }
+            NameIndex index = column.equals(ProductEntry.COLUMN_PRODUCT_NAME) ? mNameIndex : mSupplierIndex;
+            if (ProductContract.METHOD_FIND_SIMILAR_NAMES.equals(method)) {
+                result.putStringArray(ProductContract.EXTRA_SIMILAR_NAMES, index.findSimilar(text, limit));
+            } else {
+                String[] suggestions = index.suggest(text, limit);
+                result.putStringArray(ProductContract.EXTRA_SUGGESTIONS, suggestions);
+                result.putStringArray(ProductContract.EXTRA_CORRECTIONS,
+                        index.correct(text, limit - suggestions.length));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read the name indexes unless they are loaded. The whole table is read without holding the
+     * lock, so suggestions and writes don't wait for it, and the indexes are only kept if no write
+     * changed a name meanwhile. Otherwise they are read again, the last time under the lock.
+     */
+    private void loadNameIndexes() {
+        for (int attempt = 1; ; attempt++) {
+            long nameWriteCount;
+            synchronized (mInMemoryLock) {
+                if (mNameIndex != null) {
+                    return;
+                }
+                if (attempt == MAX_NAME_INDEX_READS) {
+                    loadNameIndexesLocked();
+                    return;
+                }
+                nameWriteCount = mNameWriteCount;
+            }
+            NameIndex[] indexes = readNameIndexes();
+            synchronized (mInMemoryLock) {
+                if (mNameIndex != null) {
+                    return;
+                }
+                if (nameWriteCount == mNameWriteCount) {
+                    mNameIndex = indexes[0];
+                    mSupplierIndex = indexes[1];
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the name indexes while holding the lock, so no write can change a name meanwhile.
+     */
+    private void loadNameIndexesLocked() {
+        NameIndex[] indexes = readNameIndexes();
+        mNameIndex = indexes[0];
+        mSupplierIndex = indexes[1];
+    }
+
+    /**
+     * Return the name index and the supplier index of all products, read from the database.
+     */
+    private NameIndex[] readNameIndexes() {
+        NameIndex nameIndex = new NameIndex();
+        NameIndex supplierIndex = new NameIndex();
+        Cursor cursor = mDbHelper.getReadableDatabase().query(ProductEntry.TABLE_NAME,
+                new String[]{ProductEntry._ID, ProductEntry.COLUMN_PRODUCT_NAME, ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME},
+                null, null, null, null, ProductEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                nameIndex.put(cursor.getLong(0), cursor.getString(1));
+                supplierIndex.put(cursor.getLong(0), cursor.getString(2));
+            }
+        } finally {
+            cursor.close();
+        }
+        return new NameIndex[]{nameIndex, supplierIndex};
+    }
+
+    /**
+     * Bring the snapshot and the name indexes up to date after a committed write of the given
+     * products, or drop them if the products are not known. The rows are read again instead of
+     * applying the written values, so the copies end up with the committed rows whichever
+     * concurrent write gets here first. Writes which changed no name, like the sales, only read
+     * the columns of the snapshot, and nothing at all while there is none.
+     *
+     * @param namesChanged Whether the write may have changed product or supplier names
+     */
+    private void updateInMemoryCopies(long[] ids, boolean namesChanged) {
+        if (mBatchChanged.get() != null) {
+            // The batch isn't committed yet, it drops the copies once it is
+            return;
+        }
+        synchronized (mInMemoryLock) {
+            if (namesChanged) {
+                mNameWriteCount++;
+            }
+            boolean updateNames = namesChanged && mNameIndex != null;
+            if (mSnapshot == null && !updateNames) {
+                return;
+            }
+            if (ids == null) {
+                mSnapshot = null;
+                mNameIndex = null;
+                mSupplierIndex = null;
+                return;
+            }
+            long[] sortedIds = ids.clone();
+            Arrays.sort(sortedIds);
+            String[] idArgs = new String[sortedIds.length];
+            for (int i = 0; i < sortedIds.length; i++) {
+                idArgs[i] = String.valueOf(sortedIds[i]);
+            }
+            Cursor cursor = mDbHelper.getReadableDatabase().query(ProductEntry.TABLE_NAME,
+                    updateNames ? IN_MEMORY_COLUMNS : ProductSnapshot.COLUMNS,
+                    ProductEntry._ID + " IN (" + makePlaceholders(idArgs.length) + ")",
+                    idArgs, null, null, ProductEntry._ID);
+            try {
+                int nameColumn = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_NAME);
+                int supplierColumn = cursor.getColumnIndex(ProductEntry.COLUMN_PRODUCT_SUPPLIER_NAME);
+                // Both are ordered by id, the ids without a row were deleted
+                int index = 0;
+                while (cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    for (; index < sortedIds.length && sortedIds[index] <= id; index++) {
+                        if (sortedIds[index] < id) {
+                            removeFromInMemoryCopies(sortedIds[index]);
+                        }
+                    }
+                    if (mSnapshot != null) {
+                        mSnapshot.put(cursor);
+                    }
+                    if (updateNames) {
+                        mNameIndex.put(id, cursor.getString(nameColumn));
+                        mSupplierIndex.put(id, cursor.getString(supplierColumn));
+                    }
+                }
+                for (; index < sortedIds.length; index++) {
+                    removeFromInMemoryCopies(sortedIds[index]);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private void removeFromInMemoryCopies(long id) {
+        if (mSnapshot != null) {
+            mSnapshot.remove(id);
+        }
+        if (mNameIndex != null) {
+            mNameIndex.remove(id);
+            mSupplierIndex.remove(id);
+        }
+    }
+
+    /**
+     * Return count comma separated SQL parameters, count must be at least 1.
+     */
+    private static String makePlaceholders(int count) {
+        StringBuilder placeholders = new StringBuilder("?");
+        for (int i = 1; i < count; i++) {
+            placeholders.append(", ?");
+        }
+        return placeholders.toString();
+    }
+
+    /**
+     * Atomically add the delta to the quantity of the given product. Return the new quantity, or
+     * null if the product doesn't exist or its quantity would drop below zero.
+     */
+    private Bundle adjustQuantity(long id, int delta) {
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long quantity;
+        mQueryCache.beginWrite();
+        database.beginTransaction();
+        try {
+            quantity = applyQuantityDelta(id, delta);
+            // Nothing was written if the quantity was not adjusted, the transaction still ends
+            // successfully so it doesn't fail a surrounding one
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mQueryCache.endWrite();
+        }
+        if (quantity == -1) {
+            return null;
+        }
+
+        updateInMemoryCopies(new long[]{id}, false);
+        notifyChange(ProductEntry.getChangeUri(id, ProductContract.CHANGE_UPDATE));
+
+        Bundle result = new Bundle();
+        result.putInt(ProductContract.EXTRA_QUANTITY, (int) quantity);
+        return result;
+    }
+
+    /**
+     * Add each delta to the quantity of the product at the same index in one transaction, so a
+     * burst of adjustments costs a single commit. A delta which would drop the quantity below zero
+     * takes it to zero. Return the new quantities, with -1 for each product that doesn't exist,
+     * and the part of each delta which was not applied.
+     */
+    private Bundle adjustQuantities(long[] ids, int[] deltas) {
+        // Get writable database
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        int[] quantities = new int[ids.length];
+        int[] unappliedDeltas = new int[ids.length];
+        boolean[] changed = new boolean[ids.length];
+        int changeCount = 0;
+        mQueryCache.beginWrite();
+        database.beginTransaction();
+        try {
+            for (int i = 0; i < ids.length; i++) {
+                long quantity = queryQuantity(ids[i]);
+                if (quantity == -1) {
+                    quantities[i] = -1;
+                    unappliedDeltas[i] = deltas[i];
+                    continue;
+                }
+                // The merged sales of a product may be more than its stock, the ones in stock
+                // are still sold
+                int delta = (int) Math.max(deltas[i], -quantity);
+                unappliedDeltas[i] = deltas[i] - delta;
+                if (delta == 0) {
+                    quantities[i] = (int) quantity;
+                    continue;
+                }
+                quantities[i] = (int) applyQuantityDelta(ids[i], delta);
+                changed[i] = true;
+                changeCount++;
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mQueryCache.endWrite();
+        }
+
+        if (changeCount > 0) {
+            long[] changedIds = null;
+            if (changeCount <= MAX_ROW_NOTIFICATIONS) {
+                changedIds = new long[changeCount];
+                int index = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    if (changed[i]) {
+                        changedIds[index++] = ids[i];
+                    }
+                }
+            }
+            updateInMemoryCopies(changedIds, false);
+            notifyRowChanges(changedIds, ProductContract.CHANGE_UPDATE);
+        }
+
+        Bundle result = new Bundle();
+        result.putIntArray(ProductContract.EXTRA_QUANTITIES, quantities);
+        result.putIntArray(ProductContract.EXTRA_UNAPPLIED_DELTAS, unappliedDeltas);
+        return result;
+    }
+
+    /**
+     * Add the delta to the quantity of the given product. Must be called inside a transaction.
+     * Return the new quantity, or -1 if the product doesn't exist or its quantity would drop below zero.
+     */
+    private long applyQuantityDelta(long id, int delta) {
+        SQLiteStatement update = getStatements().adjustQuantity;
+        synchronized (update) {
+            update.bindLong(1, delta);
+            update.bindLong(2, id);
+            update.bindLong(3, delta);
+            if (update.executeUpdateDelete() == 0) {
+                return -1;
+            }
+        }
+
+        SQLiteStatement select = getStatements().selectQuantity;
+        synchronized (select) {
+            select.bindLong(1, id);
+            return select.simpleQueryForLong();
+        }
+    }
+
+    /**
+     * Return the quantity of the given product, or -1 if it doesn't exist.
+     */
+    private long queryQuantity(long id) {
+        SQLiteStatement select = getStatements().selectQuantity;
+        synchronized (select) {
+            select.bindLong(1, id);
+            try {
+                return select.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Return the ids of the products matching the selection, or null if there are more than
+     * {@link #MAX_ROW_NOTIFICATIONS} of them.
+     */
+    private static long[] queryIds(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        Cursor cursor = database.query(ProductEntry.TABLE_NAME, new String[]{ProductEntry._ID},
+                selection, selectionArgs, null, null, null, String.valueOf(MAX_ROW_NOTIFICATIONS + 1));
+        try {
+            if (cursor.getCount() > MAX_ROW_NOTIFICATIONS) {
+                return null;
+            }
+            long[] ids = new long[cursor.getCount()];
+            while (cursor.moveToNext()) {
+                ids[cursor.getPosition()] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Notify the change of each of the given products on its own URI, so listeners can update just
+     * those rows. Without ids the change is notified as a change of all products.
+     */
+    private void notifyRowChanges(long[] ids, String change) {
+        if (ids == null) {
+            notifyChange(ProductEntry.CONTENT_URI);
+            return;
+        }
+        for (long id : ids) {
+            notifyChange(ProductEntry.getChangeUri(id, change));
+        }
+    }
+
+    /**
+     * Notify listeners of a change of the given URI, or remember it for the end of the running batch.
+     */
+    private void notifyChange(Uri uri) {
+        if (mBatchChanged.get() != null) {
+            mBatchChanged.set(true);
+            return;
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -315,11 +1769,55 @@ public class ProductProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
+            case PRODUCT_SEARCH:
                 return ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCT_ID:
                 return ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCT_IMAGE:
+            case IMAGE_ID:
+                return ProductEntry.CONTENT_IMAGE_TYPE;
+            case IMAGES:
+                return ImageEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Statements of the hot paths, compiled once instead of on every call. A statement keeps its
+     * bindings between calls, so each one is only bound and executed while holding its own lock.
+     */
+    private static class Statements {
+
+        final SQLiteStatement insertProduct;
+        final SQLiteStatement insertImage;
+        final SQLiteStatement selectImageByHash;
+        final SQLiteStatement addThumbnail;
+        final SQLiteStatement adjustQuantity;
+        final SQLiteStatement selectQuantity;
+        final SQLiteStatement selectProductImage;
+        final SQLiteStatement selectImage;
+
+        Statements(SQLiteDatabase database) {
+            insertProduct = database.compileStatement(SQL_INSERT_PRODUCT);
+            insertImage = database.compileStatement(SQL_INSERT_IMAGE);
+            selectImageByHash = database.compileStatement(SQL_SELECT_IMAGE_BY_HASH);
+            addThumbnail = database.compileStatement(SQL_ADD_THUMBNAIL);
+            adjustQuantity = database.compileStatement(SQL_ADJUST_QUANTITY);
+            selectQuantity = database.compileStatement(SQL_SELECT_QUANTITY);
+            selectProductImage = database.compileStatement(SQL_SELECT_PRODUCT_IMAGE);
+            selectImage = database.compileStatement(SQL_SELECT_IMAGE);
+        }
+
+        void close() {
+            insertProduct.close();
+            insertImage.close();
+            selectImageByHash.close();
+            addThumbnail.close();
+            adjustQuantity.close();
+            selectQuantity.close();
+            selectProductImage.close();
+            selectImage.close();
+        }
+    }
+}
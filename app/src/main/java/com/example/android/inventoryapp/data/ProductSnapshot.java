@@ -0,0 +1,348 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+
+import com.example.android.inventoryapp.data.ProductContract.ProductEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The columns of all products that the catalog sorts, filters and sums up, kept in memory as
+ * parallel primitive arrays ordered by id. Each distinct name is kept once, the rows only hold its
+ * number. Sorting, filtering and summing run over the arrays without touching the database and
+ * without an object per row. The provider keeps the snapshot up to date by putting and removing
+ * the rows its writes changed.
+ * <p>
+ * Not thread-safe, the provider guards it with a lock.
+ */
+class ProductSnapshot {
+
+    /**
+     * Columns a snapshot is read from, in this order.
+     */
+    static final String[] COLUMNS = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_CATEGORY,
+            ProductEntry.COLUMN_PRODUCT_PRICE,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_NAME
+    };
+
+    /**
+     * Category filter value which matches every category.
+     */
+    static final int ANY_CATEGORY = -1;
+
+    private int mCount;
+    private long[] mIds;
+    private int[] mCategories;
+    private int[] mPrices;
+    private int[] mQuantities;
+    /**
+     * Number of the name of each row in the name pool
+     */
+    private int[] mNames;
+
+    /**
+     * The distinct names by number, and the number of rows using each one. The numbers of the
+     * names no row uses anymore are reused.
+     */
+    private String[] mNamePool = new String[16];
+    private int[] mNameUses = new int[16];
+    private int mNamePoolSize;
+    private int[] mFreeNames = new int[16];
+    private int mFreeNameCount;
+    private final HashMap<String, Integer> mNameNumbers = new HashMap<>();
+    /**
+     * Position of each name number in the order of the names, null until a sort by name needs it
+     * and again after a name was added.
+     */
+    private int[] mNameRanks;
+
+    private ProductSnapshot(int capacity) {
+        mIds = new long[capacity];
+        mCategories = new int[capacity];
+        mPrices = new int[capacity];
+        mQuantities = new int[capacity];
+        mNames = new int[capacity];
+    }
+
+    /**
+     * Read a snapshot of all rows of the cursor, which holds the {@link #COLUMNS} ordered by id.
+     */
+    static ProductSnapshot read(Cursor cursor) {
+        ProductSnapshot snapshot = new ProductSnapshot(Math.max(16, cursor.getCount()));
+        for (cursor.moveToPosition(-1); cursor.moveToNext(); ) {
+            snapshot.set(snapshot.mCount++, cursor, false);
+        }
+        return snapshot;
+    }
+
+    int size() {
+        return mCount;
+    }
+
+    /**
+     * Add the product in the current row of the cursor, or replace it if it is already there.
+     * The cursor starts with the {@link #COLUMNS}.
+     */
+    void put(Cursor cursor) {
+        long id = cursor.getLong(0);
+        int position = Arrays.binarySearch(mIds, 0, mCount, id);
+        boolean replace = position >= 0;
+        if (!replace) {
+            position = -position - 1;
+            insertAt(position);
+        }
+        set(position, cursor, replace);
+    }
+
+    /**
+     * Remove the product with the given id, if it is there.
+     */
+    void remove(long id) {
+        int position = Arrays.binarySearch(mIds, 0, mCount, id);
+        if (position < 0) {
+            return;
+        }
+        releaseName(mNames[position]);
+        int moved = mCount - position - 1;
+        System.arraycopy(mIds, position + 1, mIds, position, moved);
+        System.arraycopy(mCategories, position + 1, mCategories, position, moved);
+        System.arraycopy(mPrices, position + 1, mPrices, position, moved);
+        System.arraycopy(mQuantities, position + 1, mQuantities, position, moved);
+        System.arraycopy(mNames, position + 1, mNames, position, moved);
+        mCount--;
+    }
+
+    /**
+     * Return the number of products within the given limits, and their totals.
+     *
+     * @param category The category of the products, or {@link #ANY_CATEGORY}
+     */
+    Totals total(int category, int minPrice, int maxPrice, int maxQuantity) {
+        int count = 0;
+        long totalQuantity = 0;
+        long totalValue = 0;
+        for (int i = 0; i < mCount; i++) {
+            if ((category == ANY_CATEGORY || mCategories[i] == category)
+                    && mPrices[i] >= minPrice && mPrices[i] <= maxPrice
+                    && mQuantities[i] <= maxQuantity) {
+                count++;
+                totalQuantity += mQuantities[i];
+                totalValue += (long) mPrices[i] * mQuantities[i];
+            }
+        }
+        return new Totals(count, totalQuantity, totalValue);
+    }
+
+    /**
+     * Return the ids of the products within the given limits, ordered by the sort column and then
+     * by id like the pages of {@link ProductEntry#getPageUri}.
+     *
+     * @param category   The category of the products, or {@link #ANY_CATEGORY}
+     * @param sortColumn One of the {@link #COLUMNS}
+     */
+    long[] select(int category, int minPrice, int maxPrice, int maxQuantity, String sortColumn) {
+        int[] sortValues = getSortValues(sortColumn);
+        // The sort value goes into the high half and the position into the low half of each key,
+        // so sorting the keys sorts by value and then by position, which is the id order
+        long[] keys = new long[mCount];
+        int count = 0;
+        for (int i = 0; i < mCount; i++) {
+            if ((category == ANY_CATEGORY || mCategories[i] == category)
+                    && mPrices[i] >= minPrice && mPrices[i] <= maxPrice
+                    && mQuantities[i] <= maxQuantity) {
+                keys[count++] = sortValues == null ? i : ((long) sortValues[i] << 32) | i;
+            }
+        }
+        if (sortValues != null) {
+            Arrays.sort(keys, 0, count);
+        }
+        long[] ids = new long[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = mIds[(int) keys[i]];
+        }
+        return ids;
+    }
+
+    /**
+     * Return the value of each row to sort by for the given column, or null to sort by id.
+     */
+    private int[] getSortValues(String sortColumn) {
+        switch (sortColumn) {
+            case ProductEntry._ID:
+                return null;
+            case ProductEntry.COLUMN_PRODUCT_NAME:
+                int[] ranks = getNameRanks();
+                int[] values = new int[mCount];
+                for (int i = 0; i < mCount; i++) {
+                    values[i] = ranks[mNames[i]];
+                }
+                return values;
+            case ProductEntry.COLUMN_PRODUCT_CATEGORY:
+                return mCategories;
+            case ProductEntry.COLUMN_PRODUCT_PRICE:
+                return mPrices;
+            case ProductEntry.COLUMN_PRODUCT_QUANTITY:
+                return mQuantities;
+            default:
+                throw new IllegalArgumentException("Cannot sort the snapshot by " + sortColumn);
+        }
+    }
+
+    /**
+     * Return the rank of each name number. Only the distinct names are sorted, by their UTF-16
+     * code units, which matches the BINARY collation of the database except for characters
+     * outside of the Basic Multilingual Plane.
+     */
+    private int[] getNameRanks() {
+        if (mNameRanks != null) {
+            return mNameRanks;
+        }
+        int[] order = new int[mNamePoolSize];
+        int count = 0;
+        for (int number = 0; number < mNamePoolSize; number++) {
+            if (mNameUses[number] > 0) {
+                order[count++] = number;
+            }
+        }
+        sortByName(order, new int[count], 0, count);
+        int[] ranks = new int[mNamePoolSize];
+        for (int i = 0; i < count; i++) {
+            ranks[order[i]] = i;
+        }
+        mNameRanks = ranks;
+        return ranks;
+    }
+
+    /**
+     * Merge sort the name numbers in [from, to) by their names, using the scratch array for merging.
+     */
+    private void sortByName(int[] numbers, int[] scratch, int from, int to) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sortByName(numbers, scratch, from, middle);
+        sortByName(numbers, scratch, middle, to);
+        System.arraycopy(numbers, from, scratch, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle
+                    && mNamePool[scratch[left]].compareTo(mNamePool[scratch[right]]) <= 0)) {
+                numbers[i] = scratch[left++];
+            } else {
+                numbers[i] = scratch[right++];
+            }
+        }
+    }
+
+    /**
+     * Return the number of the name, counting one more row using it. A new name gets a number.
+     */
+    private int acquireName(String name) {
+        Integer known = mNameNumbers.get(name);
+        if (known != null) {
+            mNameUses[known]++;
+            return known;
+        }
+        int number;
+        if (mFreeNameCount > 0) {
+            number = mFreeNames[--mFreeNameCount];
+        } else {
+            if (mNamePoolSize == mNamePool.length) {
+                mNamePool = Arrays.copyOf(mNamePool, mNamePoolSize * 2);
+                mNameUses = Arrays.copyOf(mNameUses, mNamePoolSize * 2);
+            }
+            number = mNamePoolSize++;
+        }
+        mNamePool[number] = name;
+        mNameUses[number] = 1;
+        mNameNumbers.put(name, number);
+        mNameRanks = null;
+        return number;
+    }
+
+    /**
+     * Count one row less using the name with the number, freeing the number once none does.
+     */
+    private void releaseName(int number) {
+        if (--mNameUses[number] > 0) {
+            return;
+        }
+        mNameNumbers.remove(mNamePool[number]);
+        mNamePool[number] = null;
+        if (mFreeNameCount == mFreeNames.length) {
+            mFreeNames = Arrays.copyOf(mFreeNames, mFreeNameCount * 2);
+        }
+        mFreeNames[mFreeNameCount++] = number;
+    }
+
+    /**
+     * Make room for a row at the given position.
+     */
+    private void insertAt(int position) {
+        if (mCount == mIds.length) {
+            int capacity = mCount * 2;
+            mIds = Arrays.copyOf(mIds, capacity);
+            mCategories = Arrays.copyOf(mCategories, capacity);
+            mPrices = Arrays.copyOf(mPrices, capacity);
+            mQuantities = Arrays.copyOf(mQuantities, capacity);
+            mNames = Arrays.copyOf(mNames, capacity);
+        }
+        int moved = mCount - position;
+        System.arraycopy(mIds, position, mIds, position + 1, moved);
+        System.arraycopy(mCategories, position, mCategories, position + 1, moved);
+        System.arraycopy(mPrices, position, mPrices, position + 1, moved);
+        System.arraycopy(mQuantities, position, mQuantities, position + 1, moved);
+        System.arraycopy(mNames, position, mNames, position + 1, moved);
+        mCount++;
+    }
+
+    /**
+     * Set the row at the position to the current row of the cursor.
+     *
+     * @param replace Whether the position holds a row already, whose name is released
+     */
+    private void set(int position, Cursor cursor, boolean replace) {
+        mIds[position] = cursor.getLong(0);
+        mCategories[position] = cursor.getInt(1);
+        mPrices[position] = cursor.getInt(2);
+        mQuantities[position] = cursor.getInt(3);
+        String name = cursor.getString(4);
+        if (!replace) {
+            mNames[position] = acquireName(name);
+        } else if (!mNamePool[mNames[position]].equals(name)) {
+            // The new name is taken before the old one is released, so a number isn't freed
+            // and taken again for the same name
+            int oldName = mNames[position];
+            mNames[position] = acquireName(name);
+            releaseName(oldName);
+        }
+    }
+
+    /**
+     * The number of products counted by {@link #total}, and their totals.
+     */
+    static class Totals {
+
+        final int count;
+        /**
+         * Sum of the quantities
+         */
+        final long totalQuantity;
+        /**
+         * Sum of price times quantity
+         */
+        final long totalValue;
+
+        Totals(int count, long totalQuantity, long totalValue) {
+            this.count = count;
+            this.totalQuantity = totalQuantity;
+            this.totalValue = totalValue;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the results of provider queries as snapshots, keyed by everything that makes up a query.
+ * Every write bumps the write generation when it starts and when it ends, and entries created in an
+ * older generation are misses. No result is cached while a write runs, since it may have read the
+ * rows from before a commit which is about to happen.
+ */
+class QueryCache {
+
+    /**
+     * Results with more rows than this are not cached.
+     */
+    private static final int MAX_CACHED_ROWS = 200;
+    /**
+     * Separates the parts of a cache key, it can't appear in any of them.
+     */
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private final LruCache<String, Entry> mEntries;
+    /**
+     * Results larger than this are not cached, so one result with many blobs can't evict all others.
+     */
+    private final int mMaxEntrySize;
+    private final AtomicLong mGeneration = new AtomicLong();
+    /**
+     * Number of writes between {@link #beginWrite} and {@link #endWrite}, nested ones included
+     */
+    private final AtomicInteger mActiveWrites = new AtomicInteger();
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * @param maxBytes Estimated size in bytes the cached results may take together
+     */
+    QueryCache(int maxBytes) {
+        mMaxEntrySize = maxBytes / 4;
+        mEntries = new LruCache<String, Entry>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Entry entry) {
+                return entry.size;
+            }
+        };
+    }
+
+    static String buildKey(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                           String sortOrder) {
+        return uri.toString() + KEY_SEPARATOR
+                + Arrays.toString(projection) + KEY_SEPARATOR
+                + selection + KEY_SEPARATOR
+                + Arrays.toString(selectionArgs) + KEY_SEPARATOR
+                + sortOrder;
+    }
+
+    /**
+     * Return the current write generation. Read it before running a query whose result is cached,
+     * so a write that starts or ends while the query runs invalidates the result.
+     */
+    long getGeneration() {
+        return mGeneration.get();
+    }
+
+    /**
+     * Invalidate all cached results and stop caching new ones until {@link #endWrite}. Call it
+     * before the transaction of a write begins.
+     */
+    void beginWrite() {
+        mActiveWrites.incrementAndGet();
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Invalidate the results cached while the write ran. Call it once the transaction ended, in a
+     * finally block so every {@link #beginWrite} has its end.
+     */
+    void endWrite() {
+        mGeneration.incrementAndGet();
+        mActiveWrites.decrementAndGet();
+    }
+
+    /**
+     * Return a new cursor over the cached result for the key, or null if there is no current one.
+     */
+    Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry != null && entry.generation != mGeneration.get()) {
+            mEntries.remove(key);
+            entry = null;
+        }
+        if (entry == null) {
+            mMisses.incrementAndGet();
+            return null;
+        }
+        mHits.incrementAndGet();
+        return new SnapshotCursor(entry.columnNames, entry.values, entry.count);
+    }
+
+    /**
+     * Cache the result of a query that ran in the given generation. Return a cursor to use in its
+     * place: a snapshot of the result, or the cursor itself if it is too large to be cached.
+     */
+    Cursor put(String key, long generation, Cursor cursor) {
+        int count = cursor.getCount();
+        if (count > MAX_CACHED_ROWS) {
+            return cursor;
+        }
+
+        Entry entry;
+        try {
+            entry = new Entry(cursor.getColumnNames(), SnapshotCursor.copyValues(cursor), count, generation);
+        } finally {
+            cursor.close();
+        }
+        if (mActiveWrites.get() == 0 && generation == mGeneration.get() && entry.size <= mMaxEntrySize) {
+            mEntries.put(key, entry);
+        }
+        return new SnapshotCursor(entry.columnNames, entry.values, entry.count);
+    }
+
+    long getHitCount() {
+        return mHits.get();
+    }
+
+    long getMissCount() {
+        return mMisses.get();
+    }
+
+    int getSize() {
+        return mEntries.size();
+    }
+
+    private static class Entry {
+
+        final String[] columnNames;
+        final Object[] values;
+        final int count;
+        final long generation;
+        /**
+         * Estimated size of the entry in bytes
+         */
+        final int size;
+
+        Entry(String[] columnNames, Object[] values, int count, long generation) {
+            this.columnNames = columnNames;
+            this.values = values;
+            this.count = count;
+            this.generation = generation;
+
+            int size = 64 + 8 * values.length;
+            for (Object value : values) {
+                if (value instanceof String) {
+                    size += 40 + 2 * ((String) value).length();
+                } else if (value instanceof byte[]) {
+                    size += 16 + ((byte[]) value).length;
+                } else if (value != null) {
+                    size += 16;
+                }
+            }
+            this.size = size;
+        }
+    }
+}
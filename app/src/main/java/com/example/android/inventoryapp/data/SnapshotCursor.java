@@ -0,0 +1,172 @@
+package com.example.android.inventoryapp.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read-only cursor over rows that were copied out of another cursor. The values are shared
+ * between all the cursors of a snapshot and never change, so handing out another cursor for
+ * the same snapshot costs no copy.
+ */
+class SnapshotCursor extends AbstractCursor {
+
+    /**
+     * The number a text starts with, the part SQLite converts when a text is read as a number
+     */
+    private static final Pattern NUMBER_PREFIX = Pattern.compile(
+            "^\\s*([+-]?(?:\\d+(\\.\\d*)?|(\\.\\d+))([eE][+-]?\\d+)?)");
+
+    private final String[] mColumnNames;
+    /**
+     * Values of all rows one after the other, each one a Long, Double, String, byte[] or null.
+     */
+    private final Object[] mValues;
+    private final int mCount;
+
+    SnapshotCursor(String[] columnNames, Object[] values, int count) {
+        mColumnNames = columnNames;
+        mValues = values;
+        mCount = count;
+    }
+
+    /**
+     * Copy all the rows of the given cursor into a new array of values, see {@link #mValues}.
+     */
+    static Object[] copyValues(Cursor cursor) {
+        int columnCount = cursor.getColumnCount();
+        Object[] values = new Object[cursor.getCount() * columnCount];
+        int index = 0;
+        for (cursor.moveToPosition(-1); cursor.moveToNext(); ) {
+            for (int column = 0; column < columnCount; column++) {
+                switch (cursor.getType(column)) {
+                    case FIELD_TYPE_INTEGER:
+                        values[index] = cursor.getLong(column);
+                        break;
+                    case FIELD_TYPE_FLOAT:
+                        values[index] = cursor.getDouble(column);
+                        break;
+                    case FIELD_TYPE_STRING:
+                        values[index] = cursor.getString(column);
+                        break;
+                    case FIELD_TYPE_BLOB:
+                        values[index] = cursor.getBlob(column);
+                        break;
+                    default:
+                        values[index] = null;
+                        break;
+                }
+                index++;
+            }
+        }
+        return values;
+    }
+
+    private Object get(int column) {
+        if (column < 0 || column >= mColumnNames.length) {
+            throw new IllegalArgumentException("Invalid column " + column);
+        }
+        if (mPos < 0 || mPos >= mCount) {
+            throw new IllegalStateException("Cursor is not positioned on a row");
+        }
+        return mValues[mPos * mColumnNames.length + column];
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        } else if (value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        } else if (value instanceof Double) {
+            return FIELD_TYPE_FLOAT;
+        } else if (value instanceof byte[]) {
+            return FIELD_TYPE_BLOB;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = get(column);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        // Like the cursor of the database, a text which doesn't start with a number is 0
+        Matcher matcher = NUMBER_PREFIX.matcher(value.toString());
+        if (!matcher.find()) {
+            return 0;
+        }
+        boolean integer = matcher.group(2) == null && matcher.group(3) == null && matcher.group(4) == null;
+        if (integer) {
+            try {
+                return Long.parseLong(matcher.group(1));
+            } catch (NumberFormatException e) {
+                // Too large for a long, converted like a real below
+            }
+        }
+        return (long) Double.parseDouble(matcher.group(1));
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = get(column);
+        if (value == null) {
+            return 0;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        Matcher matcher = NUMBER_PREFIX.matcher(value.toString());
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : 0;
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = get(column);
+        if (value == null || value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        throw new IllegalStateException("Column " + column + " is not a blob");
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return get(column) == null;
+    }
+}
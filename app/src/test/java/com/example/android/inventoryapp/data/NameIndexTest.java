@@ -0,0 +1,131 @@
+package com.example.android.inventoryapp.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the suggestions, corrections and similar names of {@link NameIndex}.
+ */
+public class NameIndexTest {
+
+    private static final String[] WORDS = {
+            "shirt", "t-shirt", "jacket", "jeans", "sock", "shoe", "hat", "scarf", "glove", "belt"
+    };
+
+    @Test
+    public void suggestsCompletionsUsedMostFirst() {
+        NameIndex index = new NameIndex();
+        index.put(1, "Shoe");
+        index.put(2, "Shirt");
+        index.put(3, "Shirt");
+        index.put(4, "Sock");
+
+        assertArrayEquals(new String[]{"Shirt", "Shoe"}, index.suggest("sh", 8));
+        assertArrayEquals(new String[]{"Shirt"}, index.suggest("sh", 1));
+        assertArrayEquals(new String[0], index.suggest("x", 8));
+    }
+
+    @Test
+    public void spellingsOfOneNameAreOneSuggestion() {
+        NameIndex index = new NameIndex();
+        index.put(1, "T-shirt");
+        index.put(2, "Tshirt");
+        index.put(3, "t shirt");
+
+        assertArrayEquals(new String[]{"T-shirt"}, index.suggest("tsh", 8));
+        assertArrayEquals(new String[]{"T-shirt"}, index.suggest("T-Sh", 8));
+    }
+
+    @Test
+    public void followsChangedAndRemovedProducts() {
+        NameIndex index = new NameIndex();
+        index.put(1, "Jacket");
+        index.put(2, "Jeans");
+        index.put(1, "Jumper");
+        index.remove(2);
+
+        assertArrayEquals(new String[]{"Jumper"}, index.suggest("j", 8));
+    }
+
+    @Test
+    public void keepsASpellingAProductStillUses() {
+        NameIndex index = new NameIndex();
+        index.put(1, "T-shirt");
+        index.put(2, "Tshirt");
+        index.put(3, "T-shirt");
+        index.put(1, "Tshirt");
+        index.remove(3);
+
+        assertArrayEquals(new String[]{"Tshirt"}, index.suggest("tsh", 8));
+        assertArrayEquals(new String[]{"Tshirt"}, index.findSimilar("T-Shirts", 8));
+
+        index.put(2, "t shirt");
+        assertArrayEquals(new String[]{"Tshirt"}, index.suggest("tsh", 8));
+        index.put(1, "Jacket");
+        assertArrayEquals(new String[]{"t shirt"}, index.suggest("tsh", 8));
+    }
+
+    @Test
+    public void correctsTyposInTheTypedText() {
+        NameIndex index = new NameIndex();
+        index.put(1, "Jacket");
+        index.put(2, "Glove");
+        index.put(3, "Scarf");
+        index.put(4, "Jacket blue");
+        index.put(5, "Jacket blue");
+
+        assertArrayEquals(new String[]{"Jacket blue", "Jacket"}, index.correct("jakcet", 8));
+        assertArrayEquals(new String[]{"Glove"}, index.correct("glvo", 8));
+        assertArrayEquals(new String[]{"Scarf"}, index.correct("scraf", 8));
+        // Completions are not corrections
+        assertArrayEquals(new String[0], index.correct("jacket", 8));
+    }
+
+    @Test
+    public void findsSimilarNames() {
+        NameIndex index = new NameIndex();
+        index.put(1, "T-shirt");
+        index.put(2, "Jacket");
+
+        assertArrayEquals(new String[]{"T-shirt"}, index.findSimilar("Tshirt", 8));
+        assertArrayEquals(new String[]{"T-shirt"}, index.findSimilar("T-Shirts", 8));
+        assertArrayEquals(new String[0], index.findSimilar("T-shirt", 8));
+        assertArrayEquals(new String[0], index.findSimilar("Trousers", 8));
+    }
+
+    @Test
+    public void suggestsAFullListAmong100kNames() {
+        NameIndex index = createIndex(100000, new Random(1));
+        String[] texts = {"s", "sh", "t-sh", "jacket b", "jakcet", "tshirtab", "glvoe", "scraf"};
+
+        for (String text : texts) {
+            String[] names = suggest(index, text);
+            assertEquals(Arrays.toString(names), NameIndex.MAX_SUGGESTIONS, names.length);
+        }
+    }
+
+    /**
+     * Return an index of products named after one of {@link #WORDS}, two letters and a number.
+     */
+    private static NameIndex createIndex(int productCount, Random random) {
+        NameIndex index = new NameIndex();
+        for (int id = 0; id < productCount; id++) {
+            index.put(id, WORDS[random.nextInt(WORDS.length)] + " " + (char) ('a' + random.nextInt(26))
+                    + (char) ('a' + random.nextInt(26)) + random.nextInt(1000));
+        }
+        return index;
+    }
+
+    private static String[] suggest(NameIndex index, String text) {
+        String[] suggestions = index.suggest(text, NameIndex.MAX_SUGGESTIONS);
+        String[] corrections = index.correct(text, NameIndex.MAX_SUGGESTIONS - suggestions.length);
+        String[] names = Arrays.copyOf(suggestions, suggestions.length + corrections.length);
+        System.arraycopy(corrections, 0, names, suggestions.length, corrections.length);
+        return names;
+    }
+}